@@ -1,17 +1,12 @@
 package borg.ed.sidepanel;
 
 import java.io.File;
-import java.io.FileFilter;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.Comparator;
-import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
 import javax.swing.UIManager;
 
-import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationContext;
@@ -20,12 +15,13 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 
 import borg.ed.galaxy.GalaxyApplication;
-import borg.ed.galaxy.journal.JournalEventReader;
-import borg.ed.galaxy.journal.events.AbstractJournalEvent;
-import borg.ed.galaxy.journal.events.LoadGameEvent;
 import borg.ed.sidepanel.commander.CommanderData;
+import borg.ed.sidepanel.commander.ExplorationArchive;
 import borg.ed.sidepanel.commander.OtherCommanderLocation;
+import borg.ed.sidepanel.galaxy.SystemValuationStore;
+import borg.ed.sidepanel.gui.DiscoveryPanel;
 import borg.ed.sidepanel.gui.SidePanelFrame;
+import borg.ed.sidepanel.journal.JournalIndex;
 
 /**
  * SidepanelApplication
@@ -53,55 +49,22 @@ public class SidepanelApplication {
 		if (!journalDir.exists()) {
 			journalDir = new File(System.getProperty("user.home"), "Google Drive\\Elite Dangerous\\Journal");
 		}
-		MY_COMMANDER_NAME = lookupCurrentCommanderName(journalDir);
-		CommanderData commanderData = new CommanderData(MY_COMMANDER_NAME, journalDir);
+		File dataDir = new File(System.getProperty("user.home"), ".elite-sidepanel");
+		if (!dataDir.exists()) {
+			dataDir.mkdirs();
+		}
+		JournalIndex journalIndex = new JournalIndex(journalDir, new File(dataDir, "JournalIndex.dat"));
+		journalIndex.update();
+		MY_COMMANDER_NAME = journalIndex.getCurrentCommanderName();
+		String commanderFileName = MY_COMMANDER_NAME.replaceAll("[^A-Za-z0-9_\\-]", "_");
+		File snapshotFile = new File(dataDir, "CommanderData." + commanderFileName + ".dat");
+		ExplorationArchive explorationArchive = new ExplorationArchive(new File(dataDir, "ExplorationArchive." + commanderFileName));
+		CommanderData commanderData = new CommanderData(MY_COMMANDER_NAME, journalIndex, snapshotFile, explorationArchive);
 		Map<String, OtherCommanderLocation> otherCommanders = new TreeMap<>();
+		SystemValuationStore systemValuationStore = new SystemValuationStore(new File(dataDir, "SystemValuations.dat"), DiscoveryPanel.valuationModelFingerprint());
 
-		SidePanelFrame frame = new SidePanelFrame("SidePanel", APPCTX, commanderData, otherCommanders);
+		SidePanelFrame frame = new SidePanelFrame("SidePanel", APPCTX, commanderData, otherCommanders, systemValuationStore);
 		frame.setVisible(true);
 	}
 
-	private static String lookupCurrentCommanderName(File journalDir) throws IOException {
-		File[] journalFiles = journalDir.listFiles(new FileFilter() {
-			@Override
-			public boolean accept(File pathname) {
-				return pathname.getName().startsWith("Journal.") && pathname.getName().endsWith(".log");
-			}
-		});
-
-		Arrays.sort(journalFiles, new Comparator<File>() {
-			@Override
-			public int compare(File f1, File f2) {
-				int startIdx1 = f1.getName().indexOf(".") + 1;
-				int endIdx1 = f1.getName().indexOf(".", startIdx1);
-				long ts1 = Long.valueOf(f1.getName().substring(startIdx1, endIdx1));
-
-				int startIdx2 = f2.getName().indexOf(".") + 1;
-				int endIdx2 = f2.getName().indexOf(".", startIdx2);
-				long ts2 = Long.valueOf(f2.getName().substring(startIdx2, endIdx2));
-
-				return -1 * new Long(ts1).compareTo(new Long(ts2));
-			}
-		});
-
-		JournalEventReader reader = new JournalEventReader();
-		List<String> lines = FileUtils.readLines(journalFiles[0], "UTF-8");
-		for (int lineNo = 1; lineNo <= lines.size(); lineNo++) {
-			String line = lines.get(lineNo - 1);
-			try {
-				AbstractJournalEvent event = reader.readLine(line);
-
-				if (event != null) {
-					if (event instanceof LoadGameEvent) {
-						return ((LoadGameEvent) event).getCommander();
-					}
-				}
-			} catch (Exception e) {
-				logger.error("Failed to process line " + lineNo + " of " + journalFiles[0] + "\n\t" + line, e);
-			}
-		}
-
-		return null;
-	}
-
 }
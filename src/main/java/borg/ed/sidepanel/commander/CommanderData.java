@@ -1,16 +1,20 @@
 package borg.ed.sidepanel.commander;
 
 import java.io.File;
-import java.io.FileFilter;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
-import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -18,7 +22,6 @@ import borg.ed.galaxy.constants.PlanetClass;
 import borg.ed.galaxy.constants.StarClass;
 import borg.ed.galaxy.constants.TerraformingState;
 import borg.ed.galaxy.data.Coord;
-import borg.ed.galaxy.journal.JournalEventReader;
 import borg.ed.galaxy.journal.events.AbstractJournalEvent;
 import borg.ed.galaxy.journal.events.DiedEvent;
 import borg.ed.galaxy.journal.events.FSDJumpEvent;
@@ -27,7 +30,9 @@ import borg.ed.galaxy.journal.events.LoadoutEvent;
 import borg.ed.galaxy.journal.events.ScanEvent;
 import borg.ed.galaxy.journal.events.SellExplorationDataEvent;
 import borg.ed.galaxy.journal.events.AbstractSystemJournalEvent.Faction;
-import borg.ed.galaxy.util.BodyUtil;
+import borg.ed.sidepanel.journal.JournalEventHandlerRegistry;
+import borg.ed.sidepanel.journal.JournalFileInfo;
+import borg.ed.sidepanel.journal.JournalIndex;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -42,12 +47,20 @@ public class CommanderData {
 
 	static final Logger logger = LoggerFactory.getLogger(CommanderData.class);
 
-	private final Set<Integer> processedJournalEventHashes = new HashSet<>();
-
 	private final String commanderName;
 
 	private final File journalDir;
 
+	private final JournalIndex journalIndex;
+
+	private final File snapshotFile;
+
+	/**
+	 * Map&lt;journalFileName, progress&gt;. The offset of each progress is the high-water mark up to which events of that
+	 * file have been applied, which is what deduplicates the startup replay and the live feed against each other.
+	 */
+	private final Map<String, JournalFileProgress> journalFileProgress = new HashMap<>();
+
 	private Coord currentCoord = null;
 
 	private String currentStarSystem = null;
@@ -68,89 +81,263 @@ public class CommanderData {
 
 	private Ship currentShip = null;
 
-	private LinkedList<VisitedStarSystem> visitedStarSystems = new LinkedList<>();
+	private final TravelHistory travelHistory = new TravelHistory();
 
 	private LinkedList<ScannedBody> scannedBodies = new LinkedList<>();
 
-	public CommanderData(String commanderName, File journalDir) throws IOException {
+	/**
+	 * Names of all {@link #scannedBodies} for O(1) lookups
+	 */
+	private final Set<String> scannedBodyNames = new HashSet<>();
+
+	private final ExplorationPayoutLedger explorationPayoutLedger = new ExplorationPayoutLedger();
+
+	/**
+	 * Sold jumps and scans beyond the most recent ones, <code>null</code> to keep everything on the heap
+	 */
+	private final ExplorationArchive explorationArchive;
+
+	/**
+	 * Number of sold jumps which stay on the heap when the rest is archived, enough for the travel line on the map
+	 */
+	private static final int SOLD_JUMPS_KEPT_ON_HEAP = 128;
+
+	/**
+	 * Handlers for the journal events which make up the commander data. Other modules may register their own handlers,
+	 * they are called for replayed and live events alike while this instance is locked.
+	 */
+	private final JournalEventHandlerRegistry journalEventHandlers = new JournalEventHandlerRegistry();
+
+	public CommanderData(String commanderName, JournalIndex journalIndex, File snapshotFile, ExplorationArchive explorationArchive) throws IOException {
 		this.commanderName = commanderName;
-		this.journalDir = journalDir;
+		this.journalDir = journalIndex.getJournalDir();
+		this.journalIndex = journalIndex;
+		this.snapshotFile = snapshotFile;
+		this.explorationArchive = explorationArchive;
+
+		this.journalEventHandlers.register(FSDJumpEvent.class, "CommanderData.FSDJump", this::updateFromFsdJumpEvent);
+		this.journalEventHandlers.register(ScanEvent.class, "CommanderData.Scan", this::updateFromScanEvent);
+		this.journalEventHandlers.register(LoadGameEvent.class, "CommanderData.LoadGame", this::updateFromLoadGameEvent);
+		this.journalEventHandlers.register(LoadoutEvent.class, "CommanderData.Loadout", this::updateFromLoadoutEvent);
+		this.journalEventHandlers.register(SellExplorationDataEvent.class, "CommanderData.SellExplorationData", this::updateFromSellExplorationDataEvent);
+		this.journalEventHandlers.register(DiedEvent.class, "CommanderData.Died", this::updateFromDiedEvent);
 
 		this.init();
 	}
 
 	private void init() throws IOException {
-		File[] journalFiles = this.getJournalDir().listFiles(new FileFilter() {
-			@Override
-			public boolean accept(File pathname) {
-				return pathname.getName().startsWith("Journal.") && pathname.getName().endsWith(".log");
+		if (!this.loadSnapshot() && this.explorationArchive != null) {
+			this.explorationArchive.truncate(0, 0); // Everything will be replayed and archived again
+		}
+
+		// Files of other commanders are skipped without opening them, as are files which have been consumed completely and
+		// not been replaced since
+		List<File> journalFiles = new ArrayList<>();
+		for (JournalFileInfo info : this.journalIndex.getJournalFileInfos(this.getCommanderName())) {
+			JournalFileProgress progress = this.journalFileProgress.get(info.getFileName());
+			if (progress == null || progress.getOffset() != info.getSize() || progress.getFirstLineHash() != info.getFirstLineHash()) {
+				journalFiles.add(this.journalIndex.getJournalFile(info));
 			}
-		});
-		Arrays.sort(journalFiles, new Comparator<File>() {
-			@Override
-			public int compare(File f1, File f2) {
-				int startIdx1 = f1.getName().indexOf(".") + 1;
-				int endIdx1 = f1.getName().indexOf(".", startIdx1);
-				long ts1 = Long.valueOf(f1.getName().substring(startIdx1, endIdx1));
+		}
+		this.replayJournalFiles(journalFiles);
+		this.journalEventHandlers.logStatistics();
 
-				int startIdx2 = f2.getName().indexOf(".") + 1;
-				int endIdx2 = f2.getName().indexOf(".", startIdx2);
-				long ts2 = Long.valueOf(f2.getName().substring(startIdx2, endIdx2));
+		this.saveSnapshot();
+	}
 
-				return new Long(ts1).compareTo(new Long(ts2));
+	/**
+	 * Parses the journal files concurrently on a fork-join pool, but applies their events strictly in file and line order
+	 * so the result is identical to a sequential replay. Only a limited number of files is parsed ahead of the one
+	 * currently being applied, which keeps memory bounded for large archives.
+	 */
+	private void replayJournalFiles(List<File> journalFiles) throws IOException {
+		final int parallelism = Runtime.getRuntime().availableProcessors();
+		final int maxFilesAhead = 2 * parallelism;
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			LinkedList<ForkJoinTask<ParsedJournalFile>> pending = new LinkedList<>();
+			int nextFileIdx = 0;
+			while (nextFileIdx < journalFiles.size() || !pending.isEmpty()) {
+				while (nextFileIdx < journalFiles.size() && pending.size() < maxFilesAhead) {
+					File journalFile = journalFiles.get(nextFileIdx++);
+					pending.addLast(pool.submit(ParsedJournalFile.parser(journalFile, this.journalFileProgress.get(journalFile.getName()), this.getCommanderName())));
+				}
+
+				this.applyParsedJournalFile(pending.removeFirst().get());
+			}
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while replaying journal files", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
 			}
-		});
-		for (File journalFile : journalFiles) {
-			this.initFromJournalFile(journalFile);
+			throw new IOException("Failed to replay journal files", e.getCause());
+		} finally {
+			pool.shutdownNow();
 		}
 	}
 
-	private void initFromJournalFile(File journalFile) throws IOException {
-		JournalEventReader reader = new JournalEventReader();
-		List<String> lines = FileUtils.readLines(journalFile, "UTF-8");
-
-		String currentCommander = null;
+	/**
+	 * Applies all events of the given file which lie beyond its high-water mark and advances the progress of that file.
+	 * If the file has been read from the start because it has shrunk or been replaced, its old progress is dropped
+	 * first, so the events of the new file are not hidden by the high-water mark of the old one.
+	 *
+	 * @return
+	 *      The events which have actually been applied
+	 */
+	public synchronized List<AbstractJournalEvent> applyParsedJournalFile(ParsedJournalFile parsedJournalFile) {
+		final String journalFileName = parsedJournalFile.getJournalFile().getName();
+
+		if (parsedJournalFile.isRestarted()) {
+			this.journalFileProgress.remove(journalFileName);
+		}
 
-		for (int lineNo = 1; lineNo <= lines.size(); lineNo++) {
-			String line = lines.get(lineNo - 1);
+		List<AbstractJournalEvent> appliedEvents = new ArrayList<>();
+		for (int i = 0; i < parsedJournalFile.getEvents().size(); i++) {
+			AbstractJournalEvent event = parsedJournalFile.getEvents().get(i);
 			try {
-				AbstractJournalEvent event = reader.readLine(line);
-
-				if (event != null) {
-					if (event instanceof LoadGameEvent) {
-						currentCommander = ((LoadGameEvent) event).getCommander();
-					}
-
-					if (this.getCommanderName().equals(currentCommander)) {
-						this.updateFromJournalEvent(event);
-					}
+				if (this.updateFromJournalEvent(journalFileName, parsedJournalFile.getEndOffsets().get(i), event)) {
+					appliedEvents.add(event);
 				}
 			} catch (Exception e) {
-				logger.error("Failed to process line " + lineNo + " of " + journalFile + "\n\t" + line, e);
+				logger.error("Failed to process line " + parsedJournalFile.getLineNos().get(i) + " of " + parsedJournalFile.getJournalFile() + "\n\t" + event, e);
 			}
 		}
+
+		JournalFileProgress progress = this.journalFileProgress.get(journalFileName);
+		if (progress == null || parsedJournalFile.isRestarted() || parsedJournalFile.getProgress().getOffset() >= progress.getOffset()) {
+			this.journalFileProgress.put(journalFileName, parsedJournalFile.getProgress());
+		}
+
+		return appliedEvents;
 	}
 
-	public boolean updateFromJournalEvent(AbstractJournalEvent event) {
-		if (event == null || this.processedJournalEventHashes.contains(event.hashCode())) {
+	/**
+	 * @return
+	 *      A copy of the progress of the given journal file, <code>null</code> if nothing of it has been consumed yet
+	 */
+	public synchronized JournalFileProgress getJournalFileProgress(String journalFileName) {
+		JournalFileProgress progress = this.journalFileProgress.get(journalFileName);
+		return progress == null ? null : new JournalFileProgress(progress.getOffset(), progress.getLineNo(), progress.getCommander(), progress.getFirstLineHash());
+	}
+
+	/**
+	 * Restores the state written by {@link #saveSnapshot()}. A missing, corrupt or outdated snapshot leaves this instance
+	 * untouched, which simply results in a full replay of all journal files. The same happens if the snapshot references
+	 * archived records which are missing. Records archived after the snapshot had been written are dropped, the replay
+	 * will archive them again.
+	 *
+	 * @return
+	 *      <code>true</code> if the snapshot has been loaded
+	 */
+	private boolean loadSnapshot() throws IOException {
+		if (this.snapshotFile == null || !this.snapshotFile.exists()) {
+			return false;
+		}
+
+		try {
+			CommanderDataSnapshot snapshot = CommanderDataSnapshot.readFrom(this.snapshotFile);
+			if (!this.getCommanderName().equals(snapshot.getCommanderName())) {
+				logger.warn(this.snapshotFile + " belongs to " + snapshot.getCommanderName() + ", replaying all journal files");
+				return false;
+			}
+			if (this.explorationArchive == null ? snapshot.getArchivedJumps() > 0 || snapshot.getArchivedScans() > 0
+					: this.explorationArchive.getJumpCount() < snapshot.getArchivedJumps() || this.explorationArchive.getScanCount() < snapshot.getArchivedScans()) {
+				logger.warn(this.snapshotFile + " references archived exploration data which is missing, replaying all journal files");
+				return false;
+			}
+			if (this.explorationArchive != null) {
+				this.explorationArchive.truncate(snapshot.getArchivedJumps(), snapshot.getArchivedScans());
+			}
+
+			this.setCurrentCoord(snapshot.getCurrentCoord());
+			this.setCurrentStarSystem(snapshot.getCurrentStarSystem());
+			this.setCurrentBody(snapshot.getCurrentBody());
+			this.setSystemFaction(snapshot.getSystemFaction());
+			this.setSystemAllegiance(snapshot.getSystemAllegiance());
+			this.setSystemEconomy(snapshot.getSystemEconomy());
+			this.setSystemState(snapshot.getSystemState());
+			this.setSystemGovernment(snapshot.getSystemGovernment());
+			this.setSystemSecurity(snapshot.getSystemSecurity());
+			this.setCurrentShip(snapshot.getCurrentShip());
+			this.getTravelHistory().addAll(snapshot.getTravelHistory());
+			this.getScannedBodies().addAll(snapshot.getScannedBodies());
+			snapshot.getScannedBodies().forEach(sb -> this.scannedBodyNames.add(sb.getName()));
+			this.explorationPayoutLedger.restore(snapshot.getPayedOutVisitedStarSystems(), snapshot.getPayedOutScannedBodies());
+			for (int i = snapshot.getPayedOutVisitedStarSystems(); i < this.getTravelHistory().size(); i++) {
+				this.explorationPayoutLedger.addVisitedStarSystem();
+			}
+			for (Iterator<ScannedBody> it = this.getScannedBodies().listIterator(Math.min(snapshot.getPayedOutScannedBodies(), this.getScannedBodies().size())); it.hasNext();) {
+				ScannedBody b = it.next();
+				this.explorationPayoutLedger.addScannedBody(b.getStarClass(), b.getPlanetClass(), b.isTerraformable());
+			}
+			this.journalFileProgress.putAll(snapshot.getJournalFileProgress());
+
+			logger.info("Loaded snapshot of " + this.getCommanderName() + " with " + this.getTravelHistory().size() + " jumps from " + this.snapshotFile);
+			return true;
+		} catch (IOException e) {
+			logger.warn("Failed to load " + this.snapshotFile + ", replaying all journal files", e);
 			return false;
 		}
+	}
 
-		if (event instanceof FSDJumpEvent) {
-			this.updateFromFsdJumpEvent((FSDJumpEvent) event);
-		} else if (event instanceof ScanEvent) {
-			this.updateFromScanEvent((ScanEvent) event);
-		} else if (event instanceof LoadGameEvent) {
-			this.updateFromLoadGameEvent((LoadGameEvent) event);
-		} else if (event instanceof LoadoutEvent) {
-			this.updateFromLoadoutEvent((LoadoutEvent) event);
-		} else if (event instanceof SellExplorationDataEvent) {
-			this.updateFromSellExplorationDataEvent((SellExplorationDataEvent) event);
-		} else if (event instanceof DiedEvent) {
-			this.updateFromDiedEvent((DiedEvent) event);
+	public synchronized void saveSnapshot() {
+		if (this.snapshotFile == null) {
+			return;
 		}
 
-		this.processedJournalEventHashes.add(event.hashCode());
+		try {
+			CommanderDataSnapshot snapshot = new CommanderDataSnapshot();
+			if (this.explorationArchive != null) {
+				this.explorationArchive.force(); // Never reference archived records which are not on disk yet
+				snapshot.setArchivedJumps(this.explorationArchive.getJumpCount());
+				snapshot.setArchivedScans(this.explorationArchive.getScanCount());
+			}
+			snapshot.setCommanderName(this.getCommanderName());
+			snapshot.setCurrentCoord(this.getCurrentCoord());
+			snapshot.setCurrentStarSystem(this.getCurrentStarSystem());
+			snapshot.setCurrentBody(this.getCurrentBody());
+			snapshot.setSystemFaction(this.getSystemFaction());
+			snapshot.setSystemAllegiance(this.getSystemAllegiance());
+			snapshot.setSystemEconomy(this.getSystemEconomy());
+			snapshot.setSystemState(this.getSystemState());
+			snapshot.setSystemGovernment(this.getSystemGovernment());
+			snapshot.setSystemSecurity(this.getSystemSecurity());
+			snapshot.setCurrentShip(this.getCurrentShip());
+			snapshot.getTravelHistory().addAll(this.getTravelHistory());
+			snapshot.getScannedBodies().addAll(this.getScannedBodies());
+			snapshot.setPayedOutVisitedStarSystems(this.explorationPayoutLedger.getPayedOutVisitedStarSystems());
+			snapshot.setPayedOutScannedBodies(this.explorationPayoutLedger.getPayedOutScannedBodies());
+			snapshot.getJournalFileProgress().putAll(this.journalFileProgress);
+			snapshot.writeTo(this.snapshotFile);
+		} catch (IOException e) {
+			logger.error("Failed to save " + this.snapshotFile, e);
+		}
+	}
+
+	/**
+	 * @param endOffset
+	 *      Byte offset directly after the journal line of the event
+	 * @return
+	 *      <code>false</code> if the event lies below the high-water mark of its file, i.e. has already been applied
+	 */
+	private boolean updateFromJournalEvent(String journalFileName, long endOffset, AbstractJournalEvent event) {
+		if (event == null) {
+			return false;
+		}
+
+		JournalFileProgress progress = this.journalFileProgress.get(journalFileName);
+		if (progress == null) {
+			progress = new JournalFileProgress();
+			this.journalFileProgress.put(journalFileName, progress);
+		} else if (endOffset <= progress.getOffset()) {
+			return false;
+		}
+
+		this.journalEventHandlers.dispatch(event);
+
+		progress.setOffset(endOffset);
 		return true;
 	}
 
@@ -173,11 +360,8 @@ public class CommanderData {
 		this.setSystemGovernment(event.getSystemGovernment());
 		this.setSystemSecurity(event.getSystemSecurity());
 
-		VisitedStarSystem visitedStarSystem = new VisitedStarSystem();
-		visitedStarSystem.setName(event.getStarSystem());
-		visitedStarSystem.setCoord(event.getStarPos());
-		visitedStarSystem.setTimestamp(event.getTimestamp());
-		this.getVisitedStarSystems().addLast(visitedStarSystem);
+		this.getTravelHistory().add(event.getStarSystem(), event.getStarPos(), event.getTimestamp());
+		this.explorationPayoutLedger.addVisitedStarSystem();
 	}
 
 	private void updateFromScanEvent(ScanEvent event) {
@@ -188,6 +372,8 @@ public class CommanderData {
 		scannedBody.setTerraformable(TerraformingState.TERRAFORMABLE.equals(TerraformingState.fromJournalValue(event.getTerraformState())));
 		scannedBody.setTimestamp(event.getTimestamp());
 		this.getScannedBodies().addLast(scannedBody);
+		this.scannedBodyNames.add(scannedBody.getName());
+		this.explorationPayoutLedger.addScannedBody(scannedBody.getStarClass(), scannedBody.getPlanetClass(), scannedBody.isTerraformable());
 	}
 
 	private void updateFromLoadGameEvent(LoadGameEvent event) {
@@ -208,45 +394,113 @@ public class CommanderData {
 		this.setCurrentShip(currentShip);
 	}
 
-	private void updateFromSellExplorationDataEvent(SellExplorationDataEvent event) {
-		for (VisitedStarSystem ss : this.getVisitedStarSystems()) {
-			ss.setPayedOut(true);
+	private void updateFromSellExplorationDataEvent(SellExplorationDataEvent event) throws IOException {
+		this.explorationPayoutLedger.payout(this.getTravelHistory().size(), this.getScannedBodies().size());
+		this.archivePayedOutHistory();
+	}
+
+	private void updateFromDiedEvent(DiedEvent event) throws IOException {
+		this.explorationPayoutLedger.payout(this.getTravelHistory().size(), this.getScannedBodies().size());
+		this.archivePayedOutHistory();
+	}
+
+	/**
+	 * Moves payed out jumps (except the most recent ones) and all payed out scans from the heap to the archive, so only
+	 * unsold data accumulates in memory.
+	 *
+	 * <p>Everything is appended to the archive before anything is removed from the heap. If appending fails, the archive
+	 * is rolled back to where it was and the heap is left untouched, so archive and snapshot never overlap or miss
+	 * records. The data simply stays on the heap until the next payout.</p>
+	 */
+	private void archivePayedOutHistory() throws IOException {
+		if (this.explorationArchive == null) {
+			return;
 		}
-		for (ScannedBody b : this.getScannedBodies()) {
-			b.setPayedOut(true);
+
+		final int nJumps = Math.max(0, this.explorationPayoutLedger.getPayedOutVisitedStarSystems() - SOLD_JUMPS_KEPT_ON_HEAP);
+		final int nScans = this.explorationPayoutLedger.getPayedOutScannedBodies();
+		if (nJumps == 0 && nScans == 0) {
+			return;
 		}
-	}
 
-	private void updateFromDiedEvent(DiedEvent event) {
-		for (VisitedStarSystem ss : this.getVisitedStarSystems()) {
-			ss.setPayedOut(true);
+		final int archivedJumps = this.explorationArchive.getJumpCount();
+		final int archivedScans = this.explorationArchive.getScanCount();
+		TravelHistory travelHistory = this.getTravelHistory();
+		try {
+			for (int idx = 0; idx < nJumps; idx++) {
+				this.explorationArchive.appendJump(travelHistory.getName(idx), travelHistory.getX(idx), travelHistory.getY(idx), travelHistory.getZ(idx), travelHistory.getTimestamp(idx));
+			}
+			Iterator<ScannedBody> it = this.getScannedBodies().iterator();
+			for (int i = 0; i < nScans; i++) {
+				this.explorationArchive.appendScan(it.next());
+			}
+		} catch (IOException | RuntimeException e) {
+			this.explorationArchive.truncate(archivedJumps, archivedScans);
+			throw e;
 		}
-		for (ScannedBody b : this.getScannedBodies()) {
-			b.setPayedOut(true);
+
+		travelHistory.removeFirst(nJumps);
+		for (int i = 0; i < nScans; i++) {
+			this.getScannedBodies().removeFirst();
 		}
+		this.scannedBodyNames.clear();
+		this.getScannedBodies().forEach(sb -> this.scannedBodyNames.add(sb.getName()));
+
+		// Nothing is unsold directly after a payout, so restoring the shifted watermarks keeps the total at zero
+		this.explorationPayoutLedger.restore(this.explorationPayoutLedger.getPayedOutVisitedStarSystems() - nJumps, this.explorationPayoutLedger.getPayedOutScannedBodies() - nScans);
 	}
 
-	public long estimateRemainingExplorationPayout() {
-		long result = 0L;
-		for (VisitedStarSystem ss : this.getVisitedStarSystems()) {
-			if (!ss.isPayedOut()) {
-				result += 2_000;
+	/**
+	 * Closes the archive. Call {@link #saveSnapshot()} before, nothing may be applied afterwards.
+	 */
+	public synchronized void close() {
+		if (this.explorationArchive != null) {
+			try {
+				this.explorationArchive.close();
+			} catch (IOException e) {
+				logger.error("Failed to close the exploration archive", e);
 			}
 		}
-		for (ScannedBody b : this.getScannedBodies()) {
-			if (!b.isPayedOut()) {
-				result += BodyUtil.estimatePayout(b.getStarClass(), b.getPlanetClass(), b.isTerraformable());
+	}
+
+	public synchronized long estimateRemainingExplorationPayout() {
+		return this.explorationPayoutLedger.getUnsoldPayout();
+	}
+
+	public synchronized boolean visitedStarSystem(String starSystemName) {
+		return this.getTravelHistory().containsName(starSystemName) || (this.explorationArchive != null && this.explorationArchive.findJump(starSystemName) >= 0);
+	}
+
+	public synchronized boolean scannedBody(String bodyName) {
+		return this.scannedBodyNames.contains(bodyName) || (this.explorationArchive != null && this.explorationArchive.findScan(bodyName) >= 0);
+	}
+
+	/**
+	 * @return
+	 *      Those of the given star system names which have been visited
+	 */
+	public synchronized Set<String> filterVisitedStarSystems(Collection<String> starSystemNames) {
+		Set<String> result = new HashSet<>();
+		for (String starSystemName : starSystemNames) {
+			if (this.visitedStarSystem(starSystemName)) {
+				result.add(starSystemName);
 			}
 		}
 		return result;
 	}
 
-	public boolean visitedStarSystem(String starSystemName) {
-		return getVisitedStarSystems().stream().anyMatch(vss -> vss.getName().equals(starSystemName));
-	}
-
-	public boolean scannedBody(String bodyName) {
-		return getScannedBodies().stream().anyMatch(sb -> sb.getName().equals(bodyName));
+	/**
+	 * @return
+	 *      Those of the given body names which have been scanned
+	 */
+	public synchronized Set<String> filterScannedBodies(Collection<String> bodyNames) {
+		Set<String> result = new HashSet<>();
+		for (String bodyName : bodyNames) {
+			if (this.scannedBody(bodyName)) {
+				result.add(bodyName);
+			}
+		}
+		return result;
 	}
 
 }
@@ -0,0 +1,307 @@
+package borg.ed.sidepanel.commander;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import borg.ed.galaxy.constants.PlanetClass;
+import borg.ed.galaxy.constants.StarClass;
+import borg.ed.galaxy.data.Coord;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Versioned on-disk image of everything {@link CommanderData} rebuilds from the journal files, together with how far
+ * each journal file has been consumed. Loading it on startup means only lines appended since it was written have to be
+ * replayed.
+ *
+ * @author <a href="mailto:b.guenther@xsite.de">Boris Guenther</a>
+ */
+@Getter
+@Setter
+public class CommanderDataSnapshot {
+
+	static final Logger logger = LoggerFactory.getLogger(CommanderDataSnapshot.class);
+
+	private static final int MAGIC = 0x45445350; // "EDSP"
+
+	/**
+	 * Increase whenever the layout written by {@link #writeTo(File)} changes. Snapshots of any other version are rejected
+	 * and the journal is replayed from scratch.
+	 */
+	public static final int VERSION = 8;
+
+	private String commanderName = null;
+
+	private Coord currentCoord = null;
+
+	private String currentStarSystem = null;
+
+	private String currentBody = null;
+
+	private String systemFaction = null;
+
+	private String systemAllegiance = null;
+
+	private String systemEconomy = null;
+
+	private String systemState = null;
+
+	private String systemGovernment = null;
+
+	private String systemSecurity = null;
+
+	private Ship currentShip = null;
+
+	private TravelHistory travelHistory = new TravelHistory();
+
+	private List<ScannedBody> scannedBodies = new ArrayList<>();
+
+	/**
+	 * Watermark of the {@link ExplorationPayoutLedger}
+	 */
+	private int payedOutVisitedStarSystems = 0;
+
+	/**
+	 * Watermark of the {@link ExplorationPayoutLedger}
+	 */
+	private int payedOutScannedBodies = 0;
+
+	/**
+	 * Number of jumps in the {@link ExplorationArchive} when this snapshot was written
+	 */
+	private int archivedJumps = 0;
+
+	/**
+	 * Number of scans in the {@link ExplorationArchive} when this snapshot was written
+	 */
+	private int archivedScans = 0;
+
+	/**
+	 * Map&lt;journalFileName, progress&gt;
+	 */
+	private Map<String, JournalFileProgress> journalFileProgress = new HashMap<>();
+
+	/**
+	 * @throws IOException
+	 *      If the file cannot be read, is truncated or corrupt, or has been written by a different version
+	 */
+	public static CommanderDataSnapshot readFrom(File file) throws IOException {
+		// Every counted element takes at least one byte, so no valid count can exceed the file length
+		final long maxCount = file.length();
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(file + " is not a snapshot file");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException(file + " has version " + version + ", expected " + VERSION);
+			}
+
+			CommanderDataSnapshot snapshot = new CommanderDataSnapshot();
+			snapshot.setCommanderName(in.readUTF());
+			snapshot.setCurrentCoord(readCoord(in));
+			snapshot.setCurrentStarSystem(readNullableUTF(in));
+			snapshot.setCurrentBody(readNullableUTF(in));
+			snapshot.setSystemFaction(readNullableUTF(in));
+			snapshot.setSystemAllegiance(readNullableUTF(in));
+			snapshot.setSystemEconomy(readNullableUTF(in));
+			snapshot.setSystemState(readNullableUTF(in));
+			snapshot.setSystemGovernment(readNullableUTF(in));
+			snapshot.setSystemSecurity(readNullableUTF(in));
+
+			if (in.readBoolean()) {
+				Ship ship = new Ship();
+				ship.setId(in.readBoolean() ? in.readLong() : null);
+				ship.setType(readNullableUTF(in));
+				ship.setIdent(readNullableUTF(in));
+				ship.setName(readNullableUTF(in));
+				snapshot.setCurrentShip(ship);
+			}
+
+			String[] starSystemNames = new String[readCount(in, maxCount, "star system names")];
+			for (int i = 0; i < starSystemNames.length; i++) {
+				starSystemNames[i] = readNullableUTF(in);
+			}
+			int nJumps = readCount(in, maxCount, "jumps");
+			for (int i = 0; i < nJumps; i++) {
+				int nameId = in.readInt();
+				if (nameId < 0 || nameId >= starSystemNames.length) {
+					throw new IOException("Corrupt snapshot " + file + ": Star system name id " + nameId + " out of range");
+				}
+				snapshot.getTravelHistory().add(starSystemNames[nameId], in.readFloat(), in.readFloat(), in.readFloat(), in.readLong());
+			}
+
+			int nScannedBodies = readCount(in, maxCount, "scanned bodies");
+			for (int i = 0; i < nScannedBodies; i++) {
+				ScannedBody scannedBody = new ScannedBody();
+				scannedBody.setName(readNullableUTF(in));
+				String starClass = readNullableUTF(in);
+				scannedBody.setStarClass(starClass == null ? null : StarClass.valueOf(starClass));
+				String planetClass = readNullableUTF(in);
+				scannedBody.setPlanetClass(planetClass == null ? null : PlanetClass.valueOf(planetClass));
+				scannedBody.setTerraformable(in.readBoolean());
+				scannedBody.setTimestamp(readTimestamp(in));
+				snapshot.getScannedBodies().add(scannedBody);
+			}
+
+			snapshot.setPayedOutVisitedStarSystems(in.readInt());
+			snapshot.setPayedOutScannedBodies(in.readInt());
+			snapshot.setArchivedJumps(in.readInt());
+			snapshot.setArchivedScans(in.readInt());
+
+			int nJournalFiles = readCount(in, maxCount, "journal files");
+			for (int i = 0; i < nJournalFiles; i++) {
+				String journalFileName = in.readUTF();
+				long offset = in.readLong();
+				int lineNo = in.readInt();
+				String commander = readNullableUTF(in);
+				int firstLineHash = in.readInt();
+				snapshot.getJournalFileProgress().put(journalFileName, new JournalFileProgress(offset, lineNo, commander, firstLineHash));
+			}
+
+			return snapshot;
+		} catch (RuntimeException e) {
+			// Unknown enum constant, unparseable timestamp, ...
+			throw new IOException("Corrupt snapshot " + file, e);
+		}
+	}
+
+	private static int readCount(DataInputStream in, long maxCount, String what) throws IOException {
+		int count = in.readInt();
+		if (count < 0 || count > maxCount) {
+			throw new IOException("Corrupt snapshot: " + count + " " + what);
+		}
+		return count;
+	}
+
+	/**
+	 * Writes to a temp file first and then replaces the target, so a crash while writing never leaves a half-written
+	 * snapshot behind.
+	 */
+	public void writeTo(File file) throws IOException {
+		File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+
+			out.writeUTF(this.getCommanderName());
+			writeCoord(out, this.getCurrentCoord());
+			writeNullableUTF(out, this.getCurrentStarSystem());
+			writeNullableUTF(out, this.getCurrentBody());
+			writeNullableUTF(out, this.getSystemFaction());
+			writeNullableUTF(out, this.getSystemAllegiance());
+			writeNullableUTF(out, this.getSystemEconomy());
+			writeNullableUTF(out, this.getSystemState());
+			writeNullableUTF(out, this.getSystemGovernment());
+			writeNullableUTF(out, this.getSystemSecurity());
+
+			Ship ship = this.getCurrentShip();
+			out.writeBoolean(ship != null);
+			if (ship != null) {
+				out.writeBoolean(ship.getId() != null);
+				if (ship.getId() != null) {
+					out.writeLong(ship.getId());
+				}
+				writeNullableUTF(out, ship.getType());
+				writeNullableUTF(out, ship.getIdent());
+				writeNullableUTF(out, ship.getName());
+			}
+
+			// Distinct names first, then the columns referencing them by id
+			TravelHistory travelHistory = this.getTravelHistory();
+			String[] starSystemNames = new String[travelHistory.getNameCount()];
+			for (int idx = 0; idx < travelHistory.size(); idx++) {
+				starSystemNames[travelHistory.getNameId(idx)] = travelHistory.getName(idx);
+			}
+			out.writeInt(starSystemNames.length);
+			for (String starSystemName : starSystemNames) {
+				writeNullableUTF(out, starSystemName);
+			}
+			out.writeInt(travelHistory.size());
+			for (int idx = 0; idx < travelHistory.size(); idx++) {
+				out.writeInt(travelHistory.getNameId(idx));
+				out.writeFloat(travelHistory.getX(idx));
+				out.writeFloat(travelHistory.getY(idx));
+				out.writeFloat(travelHistory.getZ(idx));
+				out.writeLong(travelHistory.getTimestamp(idx));
+			}
+
+			out.writeInt(this.getScannedBodies().size());
+			for (ScannedBody scannedBody : this.getScannedBodies()) {
+				writeNullableUTF(out, scannedBody.getName());
+				writeNullableUTF(out, scannedBody.getStarClass() == null ? null : scannedBody.getStarClass().name());
+				writeNullableUTF(out, scannedBody.getPlanetClass() == null ? null : scannedBody.getPlanetClass().name());
+				out.writeBoolean(scannedBody.isTerraformable());
+				writeTimestamp(out, scannedBody.getTimestamp());
+			}
+
+			out.writeInt(this.getPayedOutVisitedStarSystems());
+			out.writeInt(this.getPayedOutScannedBodies());
+			out.writeInt(this.getArchivedJumps());
+			out.writeInt(this.getArchivedScans());
+
+			out.writeInt(this.getJournalFileProgress().size());
+			for (Map.Entry<String, JournalFileProgress> entry : this.getJournalFileProgress().entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeLong(entry.getValue().getOffset());
+				out.writeInt(entry.getValue().getLineNo());
+				writeNullableUTF(out, entry.getValue().getCommander());
+				out.writeInt(entry.getValue().getFirstLineHash());
+			}
+		}
+
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static void writeNullableUTF(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readNullableUTF(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	private static void writeCoord(DataOutputStream out, Coord coord) throws IOException {
+		out.writeBoolean(coord != null);
+		if (coord != null) {
+			out.writeFloat(coord.getX());
+			out.writeFloat(coord.getY());
+			out.writeFloat(coord.getZ());
+		}
+	}
+
+	private static Coord readCoord(DataInputStream in) throws IOException {
+		return in.readBoolean() ? new Coord(in.readFloat(), in.readFloat(), in.readFloat()) : null;
+	}
+
+	private static void writeTimestamp(DataOutputStream out, ZonedDateTime timestamp) throws IOException {
+		writeNullableUTF(out, timestamp == null ? null : timestamp.toString());
+	}
+
+	private static ZonedDateTime readTimestamp(DataInputStream in) throws IOException {
+		String value = readNullableUTF(in);
+		return value == null ? null : ZonedDateTime.parse(value);
+	}
+
+}
@@ -0,0 +1,519 @@
+package borg.ed.sidepanel.commander;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import borg.ed.galaxy.constants.PlanetClass;
+import borg.ed.galaxy.constants.StarClass;
+
+/**
+ * Append-only, memory-mapped archive of the exploration history which has already been sold. Jumps and scans are stored
+ * as fixed-width records in two files, each with a name index in a third and fourth file. Nothing of the archive lives
+ * on the Java heap, so heap size stays flat no matter how long the history grows.
+ *
+ * <p>Records are appended in journal order, so time range queries are a binary search over the timestamps. Name
+ * lookups go through an open-addressing hash table which is mapped as well.</p>
+ *
+ * <p>Star and planet classes are stored by ordinal. Names longer than the name field are truncated.</p>
+ *
+ * <p>Files only ever grow and are never truncated, because Windows refuses to shrink a file which is still mapped.
+ * Replaced mappings are released right away instead of waiting for the garbage collector.</p>
+ *
+ * @author <a href="mailto:b.guenther@xsite.de">Boris Guenther</a>
+ */
+public class ExplorationArchive implements Closeable {
+
+	static final Logger logger = LoggerFactory.getLogger(ExplorationArchive.class);
+
+	private static final int JUMP_RECORD_SIZE = 128;
+	private static final int JUMP_TIMESTAMP = 0;
+	private static final int JUMP_X = 8;
+	private static final int JUMP_Y = 12;
+	private static final int JUMP_Z = 16;
+	private static final int JUMP_NAME_LENGTH = 20;
+	private static final int JUMP_NAME = 22;
+
+	private static final int SCAN_RECORD_SIZE = 128;
+	private static final int SCAN_TIMESTAMP = 0;
+	private static final int SCAN_STAR_CLASS = 8;
+	private static final int SCAN_PLANET_CLASS = 9;
+	private static final int SCAN_TERRAFORMABLE = 10;
+	private static final int SCAN_NAME_LENGTH = 12;
+	private static final int SCAN_NAME = 14;
+
+	private final RecordFile jumps;
+	private final NameIndex jumpNames;
+	private final RecordFile scans;
+	private final NameIndex scanNames;
+
+	/**
+	 * @param baseFile
+	 *      Path and base name of the archive files, the actual files get suffixes appended
+	 */
+	public ExplorationArchive(File baseFile) throws IOException {
+		this.jumps = new RecordFile(new File(baseFile.getPath() + ".jumps"), 0x4a4d5053, JUMP_RECORD_SIZE, JUMP_NAME_LENGTH, JUMP_NAME);
+		this.jumpNames = new NameIndex(new File(baseFile.getPath() + ".jumps.idx"), this.jumps);
+		this.scans = new RecordFile(new File(baseFile.getPath() + ".scans"), 0x5343414e, SCAN_RECORD_SIZE, SCAN_NAME_LENGTH, SCAN_NAME);
+		this.scanNames = new NameIndex(new File(baseFile.getPath() + ".scans.idx"), this.scans);
+	}
+
+	public synchronized void appendJump(String name, float x, float y, float z, long timestamp) throws IOException {
+		int idx = this.jumps.append();
+		int offset = this.jumps.offsetOf(idx);
+		MappedByteBuffer buffer = this.jumps.buffer;
+		buffer.putLong(offset + JUMP_TIMESTAMP, timestamp);
+		buffer.putFloat(offset + JUMP_X, x);
+		buffer.putFloat(offset + JUMP_Y, y);
+		buffer.putFloat(offset + JUMP_Z, z);
+		this.jumps.putName(idx, name);
+		this.jumps.commit(idx + 1);
+		this.jumpNames.add(name, idx);
+	}
+
+	public synchronized void appendScan(ScannedBody scannedBody) throws IOException {
+		int idx = this.scans.append();
+		int offset = this.scans.offsetOf(idx);
+		MappedByteBuffer buffer = this.scans.buffer;
+		buffer.putLong(offset + SCAN_TIMESTAMP, scannedBody.getTimestamp() == null ? 0L : scannedBody.getTimestamp().toInstant().toEpochMilli());
+		buffer.put(offset + SCAN_STAR_CLASS, (byte) (scannedBody.getStarClass() == null ? 0 : scannedBody.getStarClass().ordinal() + 1));
+		buffer.put(offset + SCAN_PLANET_CLASS, (byte) (scannedBody.getPlanetClass() == null ? 0 : scannedBody.getPlanetClass().ordinal() + 1));
+		buffer.put(offset + SCAN_TERRAFORMABLE, (byte) (scannedBody.isTerraformable() ? 1 : 0));
+		this.scans.putName(idx, scannedBody.getName());
+		this.scans.commit(idx + 1);
+		this.scanNames.add(scannedBody.getName(), idx);
+	}
+
+	public synchronized int getJumpCount() {
+		return this.jumps.count;
+	}
+
+	public synchronized int getScanCount() {
+		return this.scans.count;
+	}
+
+	public synchronized String getJumpName(int idx) {
+		return this.jumps.getName(idx);
+	}
+
+	public synchronized float getJumpX(int idx) {
+		return this.jumps.buffer.getFloat(this.jumps.offsetOf(idx) + JUMP_X);
+	}
+
+	public synchronized float getJumpY(int idx) {
+		return this.jumps.buffer.getFloat(this.jumps.offsetOf(idx) + JUMP_Y);
+	}
+
+	public synchronized float getJumpZ(int idx) {
+		return this.jumps.buffer.getFloat(this.jumps.offsetOf(idx) + JUMP_Z);
+	}
+
+	public synchronized long getJumpTimestamp(int idx) {
+		return this.jumps.buffer.getLong(this.jumps.offsetOf(idx) + JUMP_TIMESTAMP);
+	}
+
+	public synchronized String getScanName(int idx) {
+		return this.scans.getName(idx);
+	}
+
+	public synchronized long getScanTimestamp(int idx) {
+		return this.scans.buffer.getLong(this.scans.offsetOf(idx) + SCAN_TIMESTAMP);
+	}
+
+	public synchronized StarClass getScanStarClass(int idx) {
+		int ordinal = this.scans.buffer.get(this.scans.offsetOf(idx) + SCAN_STAR_CLASS);
+		return ordinal == 0 ? null : StarClass.values()[ordinal - 1];
+	}
+
+	public synchronized PlanetClass getScanPlanetClass(int idx) {
+		int ordinal = this.scans.buffer.get(this.scans.offsetOf(idx) + SCAN_PLANET_CLASS);
+		return ordinal == 0 ? null : PlanetClass.values()[ordinal - 1];
+	}
+
+	public synchronized boolean isScanTerraformable(int idx) {
+		return this.scans.buffer.get(this.scans.offsetOf(idx) + SCAN_TERRAFORMABLE) != 0;
+	}
+
+	/**
+	 * @return
+	 *      Index of the first jump with a timestamp &gt;= the given epoch millis, {@link #getJumpCount()} if there is none
+	 */
+	public synchronized int findFirstJumpAtOrAfter(long timestamp) {
+		return this.jumps.lowerBound(JUMP_TIMESTAMP, timestamp);
+	}
+
+	/**
+	 * @return
+	 *      Index of the first scan with a timestamp &gt;= the given epoch millis, {@link #getScanCount()} if there is none
+	 */
+	public synchronized int findFirstScanAtOrAfter(long timestamp) {
+		return this.scans.lowerBound(SCAN_TIMESTAMP, timestamp);
+	}
+
+	/**
+	 * @return
+	 *      Index of the first jump to the given system, -1 if it has never been visited
+	 */
+	public synchronized int findJump(String name) {
+		return this.jumpNames.find(name);
+	}
+
+	/**
+	 * @return
+	 *      Index of the first scan of the given body, -1 if it has never been scanned
+	 */
+	public synchronized int findScan(String name) {
+		return this.scanNames.find(name);
+	}
+
+	/**
+	 * Drops everything beyond the given counts, e.g. records appended after the last snapshot had been written.
+	 */
+	public synchronized void truncate(int jumpCount, int scanCount) throws IOException {
+		if (jumpCount < this.jumps.count) {
+			this.jumps.commit(jumpCount);
+			this.jumpNames.rebuild();
+		}
+		if (scanCount < this.scans.count) {
+			this.scans.commit(scanCount);
+			this.scanNames.rebuild();
+		}
+	}
+
+	public synchronized void force() {
+		this.jumps.buffer.force();
+		this.jumpNames.buffer.force();
+		this.scans.buffer.force();
+		this.scanNames.buffer.force();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		this.force();
+		unmap(this.jumps.buffer);
+		unmap(this.jumpNames.buffer);
+		unmap(this.scans.buffer);
+		unmap(this.scanNames.buffer);
+		this.jumps.buffer = null; // Fail with an NPE rather than a crash when used after closing
+		this.jumpNames.buffer = null;
+		this.scans.buffer = null;
+		this.scanNames.buffer = null;
+		this.jumps.channel.close();
+		this.jumpNames.channel.close();
+		this.scans.channel.close();
+		this.scanNames.channel.close();
+	}
+
+	/**
+	 * Releases a mapping which is no longer used. Java 8 has no public API for this, so it goes through the buffer's
+	 * cleaner. If that is not possible the mapping stays until the buffer is garbage collected.
+	 */
+	static void unmap(MappedByteBuffer buffer) {
+		if (buffer == null) {
+			return;
+		}
+		try {
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null) {
+				Method cleanMethod = cleaner.getClass().getMethod("clean");
+				cleanMethod.setAccessible(true);
+				cleanMethod.invoke(cleaner);
+			}
+		} catch (Exception e) {
+			logger.debug("Cannot unmap " + buffer + ", leaving it to the garbage collector", e);
+		}
+	}
+
+	static byte[] encodeName(String name, int maxLength) {
+		byte[] bytes = (name == null ? "" : name).getBytes(StandardCharsets.UTF_8);
+		if (bytes.length <= maxLength) {
+			return bytes;
+		}
+		int length = maxLength;
+		while (length > 0 && (bytes[length] & 0xC0) == 0x80) {
+			length--; // Do not cut a multi-byte character in half
+		}
+		byte[] truncated = new byte[length];
+		System.arraycopy(bytes, 0, truncated, 0, length);
+		return truncated;
+	}
+
+	static int hash(byte[] nameBytes) {
+		int h = 1;
+		for (byte b : nameBytes) {
+			h = 31 * h + b;
+		}
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Fixed-width records behind a small header which holds the committed record count
+	 */
+	private static class RecordFile {
+
+		private static final int HEADER_SIZE = 64;
+		private static final int INITIAL_CAPACITY = 4096;
+
+		private final FileChannel channel;
+		private final int recordSize;
+		private final int nameLengthOffset;
+		private final int nameOffset;
+		private final int maxNameLength;
+		private MappedByteBuffer buffer;
+		private int capacity;
+		private int count;
+
+		RecordFile(File file, int magic, int recordSize, int nameLengthOffset, int nameOffset) throws IOException {
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			this.recordSize = recordSize;
+			this.nameLengthOffset = nameLengthOffset;
+			this.nameOffset = nameOffset;
+			this.maxNameLength = recordSize - nameOffset;
+
+			if (this.channel.size() < HEADER_SIZE) {
+				this.map(INITIAL_CAPACITY);
+				this.buffer.putInt(0, magic);
+				this.buffer.putInt(4, recordSize);
+				this.buffer.putInt(8, 0);
+			} else {
+				this.map(Math.max(INITIAL_CAPACITY, (int) ((this.channel.size() - HEADER_SIZE) / recordSize)));
+				if (this.buffer.getInt(0) != magic || this.buffer.getInt(4) != recordSize) {
+					throw new IOException(file + " is not an archive file of this version");
+				}
+			}
+			this.count = this.buffer.getInt(8);
+			if (this.count < 0 || this.count > this.capacity) {
+				throw new IOException(file + " claims " + this.count + " records, but only has room for " + this.capacity);
+			}
+		}
+
+		int offsetOf(int idx) {
+			return HEADER_SIZE + idx * this.recordSize;
+		}
+
+		/**
+		 * @return
+		 *      Index of the new record, which becomes visible with {@link #commit(int)}
+		 */
+		int append() throws IOException {
+			if (this.count == this.capacity) {
+				this.map(this.capacity * 2);
+			}
+			return this.count;
+		}
+
+		void commit(int newCount) {
+			this.count = newCount;
+			this.buffer.putInt(8, newCount);
+		}
+
+		void putName(int idx, String name) {
+			byte[] bytes = encodeName(name, this.maxNameLength);
+			int offset = this.offsetOf(idx);
+			this.buffer.putShort(offset + this.nameLengthOffset, (short) bytes.length);
+			for (int i = 0; i < bytes.length; i++) {
+				this.buffer.put(offset + this.nameOffset + i, bytes[i]);
+			}
+		}
+
+		String getName(int idx) {
+			int offset = this.offsetOf(idx);
+			byte[] bytes = new byte[this.buffer.getShort(offset + this.nameLengthOffset)];
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = this.buffer.get(offset + this.nameOffset + i);
+			}
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		byte[] getNameBytes(int idx) {
+			return encodeName(this.getName(idx), this.maxNameLength);
+		}
+
+		boolean nameEquals(int idx, byte[] nameBytes) {
+			int offset = this.offsetOf(idx);
+			if (this.buffer.getShort(offset + this.nameLengthOffset) != nameBytes.length) {
+				return false;
+			}
+			for (int i = 0; i < nameBytes.length; i++) {
+				if (this.buffer.get(offset + this.nameOffset + i) != nameBytes[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		int lowerBound(int timestampOffset, long timestamp) {
+			int lo = 0;
+			int hi = this.count;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (this.buffer.getLong(this.offsetOf(mid) + timestampOffset) < timestamp) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+
+		/**
+		 * Maps a larger region, which grows the file
+		 */
+		private void map(int newCapacity) throws IOException {
+			MappedByteBuffer previous = this.buffer;
+			this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) newCapacity * this.recordSize);
+			this.capacity = newCapacity;
+			unmap(previous);
+		}
+
+	}
+
+	/**
+	 * Open-addressing hash table of (name hash, record index + 1) slots, 0 marking an empty slot. Kept at a load factor
+	 * of at most 1/2 and doubled when that is exceeded.
+	 */
+	private static class NameIndex {
+
+		private static final int HEADER_SIZE = 16;
+		private static final int SLOT_SIZE = 8;
+		private static final int INITIAL_CAPACITY = 8192;
+
+		private final FileChannel channel;
+		private final RecordFile records;
+		private MappedByteBuffer buffer;
+		private int capacity;
+		private int size;
+
+		NameIndex(File file, RecordFile records) throws IOException {
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			this.records = records;
+
+			if (this.channel.size() < HEADER_SIZE) {
+				this.map(INITIAL_CAPACITY);
+				this.rebuild();
+			} else {
+				this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, this.channel.size());
+				this.capacity = this.buffer.getInt(0);
+				this.size = this.buffer.getInt(4);
+				if (this.buffer.getInt(8) != records.count || this.capacity < INITIAL_CAPACITY || Integer.bitCount(this.capacity) != 1
+						|| HEADER_SIZE + (long) this.capacity * SLOT_SIZE > this.channel.size()) {
+					this.rebuild(); // Not in sync with the records, e.g. after a crash
+				}
+			}
+		}
+
+		void add(String name, int recordIdx) throws IOException {
+			byte[] nameBytes = encodeName(name, this.records.maxNameLength);
+			if (this.find(nameBytes) < 0) {
+				if (2 * (this.size + 1) > this.capacity) {
+					this.resize(this.capacity * 2);
+				}
+				this.insert(hash(nameBytes), recordIdx);
+			}
+			this.buffer.putInt(8, this.records.count);
+		}
+
+		int find(String name) {
+			return this.find(encodeName(name, this.records.maxNameLength));
+		}
+
+		private int find(byte[] nameBytes) {
+			int hash = hash(nameBytes);
+			int mask = this.capacity - 1;
+			for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+				int offset = HEADER_SIZE + slot * SLOT_SIZE;
+				int value = this.buffer.getInt(offset + 4);
+				if (value == 0) {
+					return -1;
+				}
+				int recordIdx = value - 1;
+				if (this.buffer.getInt(offset) == hash && recordIdx < this.records.count && this.records.nameEquals(recordIdx, nameBytes)) {
+					return recordIdx;
+				}
+			}
+		}
+
+		private void insert(int hash, int recordIdx) {
+			int mask = this.capacity - 1;
+			int slot = hash & mask;
+			while (this.buffer.getInt(HEADER_SIZE + slot * SLOT_SIZE + 4) != 0) {
+				slot = (slot + 1) & mask;
+			}
+			this.buffer.putInt(HEADER_SIZE + slot * SLOT_SIZE, hash);
+			this.buffer.putInt(HEADER_SIZE + slot * SLOT_SIZE + 4, recordIdx + 1);
+			this.size++;
+			this.buffer.putInt(4, this.size);
+		}
+
+		/**
+		 * Re-inserts the existing slots into a table of the new capacity
+		 */
+		private void resize(int newCapacity) throws IOException {
+			int[] hashes = new int[this.size];
+			int[] values = new int[this.size];
+			int n = 0;
+			for (int slot = 0; slot < this.capacity; slot++) {
+				int value = this.buffer.getInt(HEADER_SIZE + slot * SLOT_SIZE + 4);
+				if (value != 0) {
+					hashes[n] = this.buffer.getInt(HEADER_SIZE + slot * SLOT_SIZE);
+					values[n] = value;
+					n++;
+				}
+			}
+
+			this.map(newCapacity);
+			for (int i = 0; i < n; i++) {
+				this.insert(hashes[i], values[i] - 1);
+			}
+		}
+
+		/**
+		 * Recreates the whole table from the committed records
+		 */
+		void rebuild() throws IOException {
+			int newCapacity = INITIAL_CAPACITY;
+			while (2 * this.records.count > newCapacity) {
+				newCapacity *= 2;
+			}
+			this.map(newCapacity);
+			for (int idx = 0; idx < this.records.count; idx++) {
+				byte[] nameBytes = this.records.getNameBytes(idx);
+				if (this.find(nameBytes) < 0) {
+					this.insert(hash(nameBytes), idx);
+				}
+			}
+			this.buffer.putInt(8, this.records.count);
+		}
+
+		/**
+		 * Maps an empty table of the given capacity, replacing the current content. The file grows if the table does not
+		 * fit, but never shrinks; a smaller table simply leaves the rest of the file unused.
+		 */
+		private void map(int newCapacity) throws IOException {
+			final long tableSize = HEADER_SIZE + (long) newCapacity * SLOT_SIZE;
+			MappedByteBuffer previous = this.buffer;
+			this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, tableSize);
+			unmap(previous);
+			for (int offset = HEADER_SIZE; offset < tableSize; offset += SLOT_SIZE) {
+				this.buffer.putLong(offset, 0L);
+			}
+			this.capacity = newCapacity;
+			this.size = 0;
+			this.buffer.putInt(0, this.capacity);
+			this.buffer.putInt(4, 0);
+			this.buffer.putInt(8, 0);
+		}
+
+	}
+
+}
@@ -0,0 +1,73 @@
+package borg.ed.sidepanel.commander;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import borg.ed.galaxy.constants.PlanetClass;
+import borg.ed.galaxy.constants.StarClass;
+import borg.ed.galaxy.util.BodyUtil;
+
+/**
+ * Running total of the exploration data which has not been sold yet. Jumps and scans add to it as they arrive. Selling
+ * the data or dying only moves a watermark: Every visited system and scanned body before the watermark has been payed
+ * out (or lost), every one after it is still unsold.
+ *
+ * @author <a href="mailto:b.guenther@xsite.de">Boris Guenther</a>
+ */
+public class ExplorationPayoutLedger {
+
+	static final Logger logger = LoggerFactory.getLogger(ExplorationPayoutLedger.class);
+
+	public static final long PAYOUT_PER_VISITED_STAR_SYSTEM = 2_000L;
+
+	private long unsoldPayout = 0L;
+
+	private int payedOutVisitedStarSystems = 0;
+
+	private int payedOutScannedBodies = 0;
+
+	public void addVisitedStarSystem() {
+		this.unsoldPayout += PAYOUT_PER_VISITED_STAR_SYSTEM;
+	}
+
+	public void addScannedBody(StarClass starClass, PlanetClass planetClass, boolean terraformable) {
+		this.unsoldPayout += BodyUtil.estimatePayout(starClass, planetClass, terraformable);
+	}
+
+	/**
+	 * Marks everything visited and scanned so far as payed out.
+	 *
+	 * @param nVisitedStarSystems
+	 *      Total number of visited systems so far
+	 * @param nScannedBodies
+	 *      Total number of scanned bodies so far
+	 */
+	public void payout(int nVisitedStarSystems, int nScannedBodies) {
+		this.payedOutVisitedStarSystems = nVisitedStarSystems;
+		this.payedOutScannedBodies = nScannedBodies;
+		this.unsoldPayout = 0L;
+	}
+
+	/**
+	 * Restores the watermarks of a snapshot. The unsold total is not stored but recomputed by adding everything after the
+	 * watermarks again, so it always reflects the current payout model.
+	 */
+	public void restore(int payedOutVisitedStarSystems, int payedOutScannedBodies) {
+		this.payedOutVisitedStarSystems = payedOutVisitedStarSystems;
+		this.payedOutScannedBodies = payedOutScannedBodies;
+		this.unsoldPayout = 0L;
+	}
+
+	public long getUnsoldPayout() {
+		return this.unsoldPayout;
+	}
+
+	public int getPayedOutVisitedStarSystems() {
+		return this.payedOutVisitedStarSystems;
+	}
+
+	public int getPayedOutScannedBodies() {
+		return this.payedOutScannedBodies;
+	}
+
+}
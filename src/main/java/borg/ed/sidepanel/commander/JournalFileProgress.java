@@ -0,0 +1,46 @@
+package borg.ed.sidepanel.commander;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * How far a single journal file has been consumed by {@link CommanderData}, so it can be resumed where it was left off.
+ *
+ * @author <a href="mailto:b.guenther@xsite.de">Boris Guenther</a>
+ */
+@Getter
+@Setter
+public class JournalFileProgress {
+
+	/**
+	 * Byte offset directly after the last processed line
+	 */
+	private long offset = 0L;
+
+	/**
+	 * Number of lines already processed
+	 */
+	private int lineNo = 0;
+
+	/**
+	 * The commander who was logged in after the last processed line, i.e. the commander the next line belongs to
+	 */
+	private String commander = null;
+
+	/**
+	 * {@link String#hashCode()} of the first line, tells whether the file has been replaced since
+	 */
+	private int firstLineHash = 0;
+
+	public JournalFileProgress() {
+		// Default
+	}
+
+	public JournalFileProgress(long offset, int lineNo, String commander, int firstLineHash) {
+		this.offset = offset;
+		this.lineNo = lineNo;
+		this.commander = commander;
+		this.firstLineHash = firstLineHash;
+	}
+
+}
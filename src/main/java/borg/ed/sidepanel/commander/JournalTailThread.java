@@ -0,0 +1,113 @@
+package borg.ed.sidepanel.commander;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import borg.ed.galaxy.journal.JournalUpdateListener;
+import borg.ed.galaxy.journal.events.AbstractJournalEvent;
+import borg.ed.sidepanel.journal.JournalIndex;
+
+/**
+ * Follows the newest journal file and feeds lines appended to it into {@link CommanderData}. It continues at the
+ * high-water mark left by the startup replay, so both agree on exactly which events have been applied. Listeners are
+ * only notified about events which were new to the commander data.
+ *
+ * @author <a href="mailto:b.guenther@xsite.de">Boris Guenther</a>
+ */
+public class JournalTailThread extends Thread {
+
+	static final Logger logger = LoggerFactory.getLogger(JournalTailThread.class);
+
+	private static final long POLL_INTERVAL_MILLIS = 1000L;
+
+	private final CommanderData commanderData;
+
+	private final List<JournalUpdateListener> listeners = new ArrayList<>();
+
+	private String currentJournalFileName = null;
+
+	public JournalTailThread(CommanderData commanderData) {
+		this.commanderData = commanderData;
+
+		this.setName("JournalTailThread");
+		this.setDaemon(true);
+	}
+
+	public void addListener(JournalUpdateListener listener) {
+		if (listener != null && !this.listeners.contains(listener)) {
+			this.listeners.add(listener);
+		}
+	}
+
+	@Override
+	public void run() {
+		logger.info(this.getName() + " started");
+
+		while (!this.isInterrupted()) {
+			try {
+				String newestJournalFileName = this.lookupNewestJournalFileName();
+				if (newestJournalFileName != null && !newestJournalFileName.equals(this.currentJournalFileName)) {
+					if (this.currentJournalFileName != null) {
+						this.tail(this.currentJournalFileName); // Whatever has been written before the game switched files
+					}
+					this.commanderData.getJournalIndex().update();
+					this.currentJournalFileName = newestJournalFileName;
+					logger.debug("Following " + this.currentJournalFileName);
+				}
+
+				if (this.currentJournalFileName != null) {
+					this.tail(this.currentJournalFileName);
+				}
+
+				Thread.sleep(POLL_INTERVAL_MILLIS);
+			} catch (InterruptedException e) {
+				break;
+			} catch (Exception e) {
+				logger.error(this.getName() + " crashed", e);
+			}
+		}
+
+		logger.info(this.getName() + " stopped");
+	}
+
+	private void tail(String journalFileName) throws Exception {
+		File journalFile = new File(this.commanderData.getJournalDir(), journalFileName);
+		JournalFileProgress progress = this.commanderData.getJournalFileProgress(journalFileName);
+		if (progress != null && progress.getOffset() == journalFile.length()) {
+			return; // Nothing new
+		}
+
+		ParsedJournalFile parsedJournalFile = ParsedJournalFile.parse(journalFile, progress, this.commanderData.getCommanderName());
+		for (AbstractJournalEvent event : this.commanderData.applyParsedJournalFile(parsedJournalFile)) {
+			for (JournalUpdateListener listener : this.listeners) {
+				try {
+					listener.onNewJournalEntry(event);
+				} catch (Exception e) {
+					logger.warn("Listener " + listener + " failed on " + event, e);
+				}
+			}
+		}
+	}
+
+	private String lookupNewestJournalFileName() {
+		String[] journalFileNames = this.commanderData.getJournalDir().list((dir, name) -> JournalIndex.isJournalFileName(name));
+
+		String newestJournalFileName = null;
+		long newestTimestamp = Long.MIN_VALUE;
+		if (journalFileNames != null) {
+			for (String journalFileName : journalFileNames) {
+				long timestamp = JournalIndex.parseFileNameTimestamp(journalFileName);
+				if (timestamp > newestTimestamp) {
+					newestTimestamp = timestamp;
+					newestJournalFileName = journalFileName;
+				}
+			}
+		}
+		return newestJournalFileName;
+	}
+
+}
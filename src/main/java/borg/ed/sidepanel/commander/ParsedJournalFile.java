@@ -0,0 +1,124 @@
+package borg.ed.sidepanel.commander;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import borg.ed.galaxy.journal.JournalEventReader;
+import borg.ed.galaxy.journal.events.AbstractJournalEvent;
+import borg.ed.galaxy.journal.events.LoadGameEvent;
+import borg.ed.sidepanel.journal.JournalLineReader;
+import lombok.Getter;
+
+/**
+ * The events of a single journal file which belong to one commander, in line order. Parsing does not touch any shared
+ * state, so several files can be parsed concurrently and applied to {@link CommanderData} afterwards.
+ *
+ * @author <a href="mailto:b.guenther@xsite.de">Boris Guenther</a>
+ */
+@Getter
+public class ParsedJournalFile {
+
+	static final Logger logger = LoggerFactory.getLogger(ParsedJournalFile.class);
+
+	private final File journalFile;
+
+	private final List<AbstractJournalEvent> events = new ArrayList<>();
+
+	private final List<Integer> lineNos = new ArrayList<>();
+
+	/**
+	 * Byte offsets directly after the line of each event
+	 */
+	private final List<Long> endOffsets = new ArrayList<>();
+
+	/**
+	 * Progress after the last parsed line
+	 */
+	private final JournalFileProgress progress;
+
+	/**
+	 * <code>true</code> if the file has shrunk or been replaced since the given progress, so it has been parsed from the
+	 * start and the events of the old file must be forgotten
+	 */
+	private final boolean restarted;
+
+	private ParsedJournalFile(File journalFile, JournalFileProgress progress, boolean restarted) {
+		this.journalFile = journalFile;
+		this.progress = progress;
+		this.restarted = restarted;
+	}
+
+	/**
+	 * @param startProgress
+	 *      Where to continue, <code>null</code> to parse the whole file
+	 */
+	public static ParsedJournalFile parse(File journalFile, JournalFileProgress startProgress, String commanderName) throws IOException {
+		JournalFileProgress progress = startProgress == null ? new JournalFileProgress()
+				: new JournalFileProgress(startProgress.getOffset(), startProgress.getLineNo(), startProgress.getCommander(), startProgress.getFirstLineHash());
+		boolean restarted = false;
+		if (progress.getOffset() > journalFile.length()) {
+			logger.warn(journalFile + " is shorter than the " + progress.getOffset() + " bytes processed before, reading it from the start");
+			restarted = true;
+		} else if (progress.getOffset() > 0 && firstLineHash(journalFile) != progress.getFirstLineHash()) {
+			logger.warn(journalFile + " has been replaced since it was processed, reading it from the start");
+			restarted = true;
+		}
+		if (restarted) {
+			progress = new JournalFileProgress();
+		}
+		ParsedJournalFile result = new ParsedJournalFile(journalFile, progress, restarted);
+
+		JournalEventReader reader = new JournalEventReader();
+		String currentCommander = progress.getCommander();
+
+		try (JournalLineReader lineReader = new JournalLineReader(journalFile, progress.getOffset(), progress.getLineNo())) {
+			String line = null;
+			while ((line = lineReader.readLine()) != null) {
+				if (lineReader.getLineNo() == 1) {
+					progress.setFirstLineHash(line.hashCode());
+				}
+				try {
+					AbstractJournalEvent event = reader.readLine(line);
+
+					if (event != null) {
+						if (event instanceof LoadGameEvent) {
+							currentCommander = ((LoadGameEvent) event).getCommander();
+						}
+
+						if (commanderName.equals(currentCommander)) {
+							result.events.add(event);
+							result.lineNos.add(lineReader.getLineNo());
+							result.endOffsets.add(lineReader.getPosition());
+						}
+					}
+				} catch (Exception e) {
+					logger.error("Failed to process line " + lineReader.getLineNo() + " of " + journalFile + "\n\t" + line, e);
+				}
+			}
+
+			progress.setOffset(lineReader.getPosition());
+			progress.setLineNo(lineReader.getLineNo());
+			progress.setCommander(currentCommander);
+		}
+
+		return result;
+	}
+
+	private static int firstLineHash(File journalFile) throws IOException {
+		try (JournalLineReader lineReader = new JournalLineReader(journalFile)) {
+			String firstLine = lineReader.readLine();
+			return firstLine == null ? 0 : firstLine.hashCode();
+		}
+	}
+
+	public static Callable<ParsedJournalFile> parser(File journalFile, JournalFileProgress startProgress, String commanderName) {
+		return () -> parse(journalFile, startProgress, commanderName);
+	}
+
+}
@@ -34,6 +34,4 @@ public class ScannedBody implements Serializable {
 
     private ZonedDateTime timestamp = null;
 
-    private boolean payedOut = false;
-
 }
@@ -0,0 +1,329 @@
+package borg.ed.sidepanel.commander;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import borg.ed.galaxy.data.Coord;
+
+/**
+ * The jumps of a commander stored as primitive columns: x/y/z as floats, the timestamp as epoch millis and the system
+ * name as an id into a dictionary of distinct names. Random access is O(1) and reading does not allocate anything.
+ *
+ * <p>There is a single writer (the owning {@link CommanderData}, which holds its lock while appending). Readers such as
+ * the map may read concurrently without locking. Every change publishes a new immutable view of the columns (their
+ * arrays, start offset and size), and a slot is never written again once a view covering it has been published:
+ * {@link #add(String, float, float, float, long)} only writes behind the end, {@link #removeFirst(int)} only moves the
+ * start offset forward, and full columns are compacted into fresh arrays. A single getter call, and a whole
+ * {@link Range}, therefore always read from one consistent view.</p>
+ *
+ * @author <a href="mailto:b.guenther@xsite.de">Boris Guenther</a>
+ */
+public class TravelHistory {
+
+	static final Logger logger = LoggerFactory.getLogger(TravelHistory.class);
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private volatile Columns columns = new Columns(new float[INITIAL_CAPACITY], new float[INITIAL_CAPACITY], new float[INITIAL_CAPACITY], new long[INITIAL_CAPACITY],
+			new int[INITIAL_CAPACITY], new String[INITIAL_CAPACITY], 0, 0, 0);
+
+	/**
+	 * Map&lt;name, nameId&gt;, replaced as a whole when the columns are compacted
+	 */
+	private volatile Map<String, Integer> nameIdsByName = new ConcurrentHashMap<>();
+
+	public void add(String name, Coord coord, ZonedDateTime timestamp) {
+		this.add(name, coord == null ? Float.NaN : coord.getX(), coord == null ? Float.NaN : coord.getY(), coord == null ? Float.NaN : coord.getZ(), timestamp == null ? 0L : timestamp.toInstant().toEpochMilli());
+	}
+
+	public void add(String name, float x, float y, float z, long timestamp) {
+		Columns c = this.columns;
+		if (c.base + c.size == c.xs.length) {
+			c = this.compact(c);
+		}
+
+		String[] names = c.names;
+		int nameCount = c.nameCount;
+		Integer nameId = this.nameIdsByName.get(nameKey(name));
+		if (nameId == null) {
+			if (nameCount == names.length) {
+				names = Arrays.copyOf(names, nameCount * 2);
+			}
+			nameId = nameCount++;
+			names[nameId] = name;
+			this.nameIdsByName.put(nameKey(name), nameId);
+		}
+
+		final int slot = c.base + c.size;
+		c.xs[slot] = x;
+		c.ys[slot] = y;
+		c.zs[slot] = z;
+		c.timestamps[slot] = timestamp;
+		c.nameIds[slot] = nameId;
+
+		this.columns = new Columns(c.xs, c.ys, c.zs, c.timestamps, c.nameIds, names, nameCount, c.base, c.size + 1); // Publish
+	}
+
+	public void addAll(TravelHistory other) {
+		for (int idx = 0; idx < other.size(); idx++) {
+			this.add(other.getName(idx), other.getX(idx), other.getY(idx), other.getZ(idx), other.getTimestamp(idx));
+		}
+	}
+
+	/**
+	 * Drops the oldest <code>n</code> entries, e.g. after they have been moved to the {@link ExplorationArchive}. Only
+	 * the start offset moves, the slots are reclaimed (and names which are no longer referenced dropped from the
+	 * dictionary) the next time the columns are full.
+	 */
+	public void removeFirst(int n) {
+		if (n <= 0) {
+			return;
+		}
+		Columns c = this.columns;
+		int removed = Math.min(n, c.size);
+		this.columns = new Columns(c.xs, c.ys, c.zs, c.timestamps, c.nameIds, c.names, c.nameCount, c.base + removed, c.size - removed); // Publish
+	}
+
+	/**
+	 * Copies the live entries into fresh columns starting at 0, doubling the capacity if more than half of it is in use,
+	 * and rebuilds the name dictionary so it only contains names still referenced. The old arrays are left untouched for
+	 * readers still holding them.
+	 */
+	private Columns compact(Columns c) {
+		int capacity = c.xs.length;
+		while (2 * (c.size + 1) > capacity) {
+			capacity *= 2;
+		}
+
+		float[] xs = new float[capacity];
+		float[] ys = new float[capacity];
+		float[] zs = new float[capacity];
+		long[] timestamps = new long[capacity];
+		int[] nameIds = new int[capacity];
+		System.arraycopy(c.xs, c.base, xs, 0, c.size);
+		System.arraycopy(c.ys, c.base, ys, 0, c.size);
+		System.arraycopy(c.zs, c.base, zs, 0, c.size);
+		System.arraycopy(c.timestamps, c.base, timestamps, 0, c.size);
+
+		String[] names = new String[Math.max(INITIAL_CAPACITY, c.names.length)];
+		int nameCount = 0;
+		Map<String, Integer> newNameIdsByName = new ConcurrentHashMap<>();
+		for (int idx = 0; idx < c.size; idx++) {
+			String name = c.names[c.nameIds[c.base + idx]];
+			Integer nameId = newNameIdsByName.get(nameKey(name));
+			if (nameId == null) {
+				nameId = nameCount++;
+				names[nameId] = name;
+				newNameIdsByName.put(nameKey(name), nameId);
+			}
+			nameIds[idx] = nameId;
+		}
+
+		Columns compacted = new Columns(xs, ys, zs, timestamps, nameIds, names, nameCount, 0, c.size);
+		this.nameIdsByName = newNameIdsByName;
+		this.columns = compacted; // Publish
+		return compacted;
+	}
+
+	public int size() {
+		return this.columns.size;
+	}
+
+	public float getX(int idx) {
+		return this.columns.getX(idx);
+	}
+
+	public float getY(int idx) {
+		return this.columns.getY(idx);
+	}
+
+	public float getZ(int idx) {
+		return this.columns.getZ(idx);
+	}
+
+	/**
+	 * @return
+	 *      Epoch millis
+	 */
+	public long getTimestamp(int idx) {
+		return this.columns.getTimestamp(idx);
+	}
+
+	public int getNameId(int idx) {
+		return this.columns.getNameId(idx);
+	}
+
+	public String getName(int idx) {
+		return this.columns.getName(idx);
+	}
+
+	/**
+	 * @return
+	 *      <code>true</code> if the given system has been visited at least once. Systems of entries dropped with
+	 *      {@link #removeFirst(int)} may still be reported until the next compaction.
+	 */
+	public boolean containsName(String name) {
+		return this.nameIdsByName.containsKey(nameKey(name));
+	}
+
+	/**
+	 * @return
+	 *      Size of the name dictionary, an upper bound for {@link #getNameId(int)}
+	 */
+	public int getNameCount() {
+		return this.columns.nameCount;
+	}
+
+	/**
+	 * Materializes a single entry. Prefer the primitive getters in loops.
+	 */
+	public VisitedStarSystem get(int idx) {
+		Columns c = this.columns;
+		VisitedStarSystem visitedStarSystem = new VisitedStarSystem();
+		visitedStarSystem.setName(c.getName(idx));
+		visitedStarSystem.setCoord(Float.isNaN(c.getX(idx)) ? null : new Coord(c.getX(idx), c.getY(idx), c.getZ(idx)));
+		visitedStarSystem.setTimestamp(c.getTimestamp(idx) == 0L ? null : ZonedDateTime.ofInstant(Instant.ofEpochMilli(c.getTimestamp(idx)), ZoneOffset.UTC));
+		return visitedStarSystem;
+	}
+
+	/**
+	 * @return
+	 *      A view of the entries from <code>fromIndex</code> (inclusive) to <code>toIndex</code> (exclusive), without
+	 *      copying them. The view is not affected by later changes.
+	 */
+	public Range range(int fromIndex, int toIndex) {
+		return range(this.columns, fromIndex, toIndex);
+	}
+
+	/**
+	 * @return
+	 *      A view of the last <code>n</code> entries (or less if there are not that many)
+	 */
+	public Range last(int n) {
+		Columns c = this.columns;
+		return range(c, Math.max(0, c.size - n), c.size);
+	}
+
+	private static Range range(Columns c, int fromIndex, int toIndex) {
+		if (fromIndex < 0 || toIndex > c.size || fromIndex > toIndex) {
+			throw new IndexOutOfBoundsException("fromIndex=" + fromIndex + ", toIndex=" + toIndex + ", size=" + c.size);
+		}
+		return new Range(c, fromIndex, toIndex);
+	}
+
+	/**
+	 * {@link ConcurrentHashMap} does not accept <code>null</code> keys
+	 */
+	private static String nameKey(String name) {
+		return name == null ? "" : name;
+	}
+
+	/**
+	 * Immutable view of the columns. Slots from <code>base</code> to <code>base + size</code> are never written again.
+	 */
+	private static final class Columns {
+
+		private final float[] xs;
+		private final float[] ys;
+		private final float[] zs;
+		private final long[] timestamps;
+		private final int[] nameIds;
+		private final String[] names;
+		private final int nameCount;
+		private final int base;
+		private final int size;
+
+		Columns(float[] xs, float[] ys, float[] zs, long[] timestamps, int[] nameIds, String[] names, int nameCount, int base, int size) {
+			this.xs = xs;
+			this.ys = ys;
+			this.zs = zs;
+			this.timestamps = timestamps;
+			this.nameIds = nameIds;
+			this.names = names;
+			this.nameCount = nameCount;
+			this.base = base;
+			this.size = size;
+		}
+
+		float getX(int idx) {
+			return this.xs[this.slot(idx)];
+		}
+
+		float getY(int idx) {
+			return this.ys[this.slot(idx)];
+		}
+
+		float getZ(int idx) {
+			return this.zs[this.slot(idx)];
+		}
+
+		long getTimestamp(int idx) {
+			return this.timestamps[this.slot(idx)];
+		}
+
+		int getNameId(int idx) {
+			return this.nameIds[this.slot(idx)];
+		}
+
+		String getName(int idx) {
+			return this.names[this.nameIds[this.slot(idx)]];
+		}
+
+		private int slot(int idx) {
+			if (idx < 0 || idx >= this.size) {
+				throw new IndexOutOfBoundsException("idx=" + idx + ", size=" + this.size);
+			}
+			return this.base + idx;
+		}
+
+	}
+
+	/**
+	 * Fixed window into a {@link TravelHistory}, indexed from 0
+	 */
+	public static class Range {
+
+		private final Columns columns;
+		private final int fromIndex;
+		private final int size;
+
+		private Range(Columns columns, int fromIndex, int toIndex) {
+			this.columns = columns;
+			this.fromIndex = fromIndex;
+			this.size = toIndex - fromIndex;
+		}
+
+		public int size() {
+			return this.size;
+		}
+
+		public float getX(int idx) {
+			return this.columns.getX(this.fromIndex + idx);
+		}
+
+		public float getY(int idx) {
+			return this.columns.getY(this.fromIndex + idx);
+		}
+
+		public float getZ(int idx) {
+			return this.columns.getZ(this.fromIndex + idx);
+		}
+
+		public long getTimestamp(int idx) {
+			return this.columns.getTimestamp(this.fromIndex + idx);
+		}
+
+		public String getName(int idx) {
+			return this.columns.getName(this.fromIndex + idx);
+		}
+
+	}
+
+}
@@ -29,6 +29,4 @@ public class VisitedStarSystem implements Serializable {
 
     private ZonedDateTime timestamp = null;
 
-    private boolean payedOut = false;
-
 }
@@ -0,0 +1,81 @@
+package borg.ed.sidepanel.galaxy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import borg.ed.galaxy.model.Body;
+
+/**
+ * Binary max-heap of at most <code>capacity</code> bodies on parallel arrays, keyed by squared distance with the farthest
+ * body at the root. Used to find the k nearest bodies without sorting all candidates.
+ *
+ * @author <a href="mailto:b.guenther@xsite.de">Boris Guenther</a>
+ */
+class BoundedMaxHeap {
+
+	private final Body[] bodies;
+	private final float[] distancesSquared;
+	private int size = 0;
+
+	BoundedMaxHeap(int capacity) {
+		this.bodies = new Body[capacity];
+		this.distancesSquared = new float[capacity];
+	}
+
+	boolean isFull() {
+		return this.size == this.bodies.length;
+	}
+
+	float maxDistanceSquared() {
+		return this.distancesSquared[0];
+	}
+
+	/**
+	 * Adds the body, replacing the farthest one if the heap is full
+	 */
+	void offer(Body body, float distanceSquared) {
+		if (!this.isFull()) {
+			int idx = this.size++;
+			while (idx > 0 && this.distancesSquared[(idx - 1) / 2] < distanceSquared) {
+				this.bodies[idx] = this.bodies[(idx - 1) / 2];
+				this.distancesSquared[idx] = this.distancesSquared[(idx - 1) / 2];
+				idx = (idx - 1) / 2;
+			}
+			this.bodies[idx] = body;
+			this.distancesSquared[idx] = distanceSquared;
+		} else if (distanceSquared < this.distancesSquared[0]) {
+			this.siftDown(0, body, distanceSquared);
+		}
+	}
+
+	List<Body> drainAscending() {
+		Body[] result = new Body[this.size];
+		while (this.size > 0) {
+			result[this.size - 1] = this.bodies[0];
+			int last = --this.size;
+			if (last > 0) {
+				this.siftDown(0, this.bodies[last], this.distancesSquared[last]);
+			}
+		}
+		return new ArrayList<>(Arrays.asList(result));
+	}
+
+	private void siftDown(int idx, Body body, float distanceSquared) {
+		while (2 * idx + 1 < this.size) {
+			int child = 2 * idx + 1;
+			if (child + 1 < this.size && this.distancesSquared[child + 1] > this.distancesSquared[child]) {
+				child++;
+			}
+			if (this.distancesSquared[child] <= distanceSquared) {
+				break;
+			}
+			this.bodies[idx] = this.bodies[child];
+			this.distancesSquared[idx] = this.distancesSquared[child];
+			idx = child;
+		}
+		this.bodies[idx] = body;
+		this.distancesSquared[idx] = distanceSquared;
+	}
+
+}
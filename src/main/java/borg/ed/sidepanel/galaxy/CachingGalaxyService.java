@@ -0,0 +1,406 @@
+package borg.ed.sidepanel.galaxy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.util.CloseableIterator;
+
+import borg.ed.galaxy.constants.PlanetClass;
+import borg.ed.galaxy.constants.StarClass;
+import borg.ed.galaxy.data.Coord;
+import borg.ed.galaxy.exceptions.NonUniqueResultException;
+import borg.ed.galaxy.model.Body;
+import borg.ed.galaxy.model.Body.MaterialShare;
+import borg.ed.galaxy.model.StarSystem;
+import borg.ed.galaxy.service.GalaxyService;
+
+/**
+ * Wraps a {@link GalaxyService} and keeps the results of the queries the discovery panel issues over and over again.
+ *
+ * <p>Spatial queries are answered by {@link LocalSpatialIndex local indexes} around the commander, which this class
+ * creates. Their paged backend queries are exposed as complete lists of at most {@link #MAX_RESULTS} entries.</p>
+ *
+ * <p>Cached entries expire after {@link #TTL_MILLIS}, and the least recently used ones are evicted once the cached
+ * lists hold more than {@link #MAX_CACHED_OBJECTS} objects.</p>
+ *
+ * <p>The batch lookups by system name answer what they can from the cache and fetch the remaining names with the
+ * multi-get queries of the backend, {@link #BATCH_SIZE} names per query. A batch of several hundred names then costs a
+ * handful of queries instead of several hundred single lookups.</p>
+ *
+ * @author <a href="mailto:b.guenther@xsite.de">Boris Guenther</a>
+ */
+public class CachingGalaxyService {
+
+	static final Logger logger = LoggerFactory.getLogger(CachingGalaxyService.class);
+
+	public static final int MAX_RESULTS = 10000;
+
+	public static final long TTL_MILLIS = 5 * 60 * 1000L;
+
+	public static final int MAX_CACHED_OBJECTS = 250_000;
+
+	/**
+	 * Names per multi-get query, keeps the number of bodies returned by a single query moderate
+	 */
+	public static final int BATCH_SIZE = 100;
+
+	private final GalaxyService delegate;
+
+	/**
+	 * Map&lt;key, entry&gt; in access order
+	 */
+	private final LinkedHashMap<List<Object>, CacheEntry> cache = new LinkedHashMap<>(1024, 0.75f, /* accessOrder = */ true);
+
+	private long cachedObjects = 0L;
+
+	private final AtomicLong hits = new AtomicLong(0L);
+
+	private final AtomicLong misses = new AtomicLong(0L);
+
+	private final AtomicLong evictions = new AtomicLong(0L);
+
+	public CachingGalaxyService(GalaxyService delegate) {
+		this.delegate = delegate;
+	}
+
+	/**
+	 * The wrapped service, for queries which are not worth caching
+	 */
+	public GalaxyService getDelegate() {
+		return this.delegate;
+	}
+
+	public List<Body> findBodiesByStarSystemName(String starSystemName) {
+		List<Object> key = Arrays.asList("findBodiesByStarSystemName", starSystemName);
+		List<Body> result = this.get(key);
+		if (result == null) {
+			result = this.put(key, this.delegate.findBodiesByStarSystemName(starSystemName));
+		}
+		return result;
+	}
+
+	/**
+	 * @return
+	 *      <code>null</code> if there is no such system
+	 */
+	public StarSystem findStarSystemByName(String starSystemName) throws NonUniqueResultException {
+		List<Object> key = Arrays.asList("findStarSystemByName", starSystemName);
+		List<StarSystem> result = this.get(key);
+		if (result == null) {
+			StarSystem starSystem = this.delegate.findStarSystemByName(starSystemName);
+			result = this.put(key, starSystem == null ? Collections.emptyList() : Collections.singletonList(starSystem));
+		}
+		return result.isEmpty() ? null : result.get(0);
+	}
+
+	/**
+	 * Batch variant of {@link #findBodiesByStarSystemName(String)}
+	 *
+	 * @return
+	 *      Map&lt;systemName, bodies&gt; in the order of the given names, without duplicates. Names which could not be
+	 *      looked up are missing.
+	 */
+	public Map<String, List<Body>> findBodiesByStarSystemNames(Collection<String> starSystemNames) {
+		return this.batch("findBodiesByStarSystemName", starSystemNames, this.delegate::findBodiesByStarSystemNames, Body::getStarSystemName, bodies -> true);
+	}
+
+	/**
+	 * Batch variant of {@link #findStarSystemByName(String)}
+	 *
+	 * @return
+	 *      Map&lt;systemName, system&gt; in the order of the given names, without duplicates. Unknown and ambiguous names
+	 *      are missing.
+	 */
+	public Map<String, StarSystem> findStarSystemsByNames(Collection<String> starSystemNames) {
+		Map<String, List<StarSystem>> starSystemsByName = this.batch("findStarSystemByName", starSystemNames, this.delegate::findStarSystemsByNames, StarSystem::getName,
+				starSystems -> starSystems.size() <= 1); // Ambiguous names are left to findStarSystemByName
+
+		Map<String, StarSystem> result = new LinkedHashMap<>(starSystemsByName.size());
+		for (Map.Entry<String, List<StarSystem>> entry : starSystemsByName.entrySet()) {
+			if (!entry.getValue().isEmpty()) {
+				result.put(entry.getKey(), entry.getValue().get(0));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return
+	 *      The summed up materials of all bodies of the given system, computed from its cached bodies
+	 */
+	public MaterialTotals getMaterialTotals(String starSystemName) {
+		List<Object> key = Arrays.asList("getMaterialTotals", starSystemName);
+		List<MaterialTotals> result = this.get(key);
+		if (result == null) {
+			result = this.put(key, Collections.singletonList(MaterialTotals.of(this.findBodiesByStarSystemName(starSystemName))));
+		}
+		return result.get(0);
+	}
+
+	/**
+	 * Batch variant of {@link #getMaterialTotals(String)}
+	 *
+	 * @return
+	 *      Map&lt;systemName, totals&gt; in the order of the given names, without duplicates. Names which could not be
+	 *      looked up are missing.
+	 */
+	public Map<String, MaterialTotals> getMaterialTotals(Collection<String> starSystemNames) {
+		Set<String> uniqueNames = new LinkedHashSet<>(starSystemNames);
+		Map<String, MaterialTotals> found = new HashMap<>(uniqueNames.size());
+		List<String> missingNames = new ArrayList<>();
+		for (String starSystemName : uniqueNames) {
+			List<MaterialTotals> cached = this.get(Arrays.asList("getMaterialTotals", starSystemName));
+			if (cached != null) {
+				found.put(starSystemName, cached.get(0));
+			} else {
+				missingNames.add(starSystemName);
+			}
+		}
+
+		for (Map.Entry<String, List<Body>> entry : this.findBodiesByStarSystemNames(missingNames).entrySet()) {
+			MaterialTotals totals = MaterialTotals.of(entry.getValue());
+			this.put(Arrays.asList("getMaterialTotals", entry.getKey()), Collections.singletonList(totals));
+			found.put(entry.getKey(), totals);
+		}
+
+		Map<String, MaterialTotals> result = new LinkedHashMap<>(found.size());
+		for (String starSystemName : uniqueNames) {
+			if (found.containsKey(starSystemName)) {
+				result.put(starSystemName, found.get(starSystemName));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return
+	 *      A local index of the stars around the commander, fetched from the uncached backend
+	 */
+	public LocalSpatialIndex newStarIndex(String name, float radius, Boolean isMainStar, Collection<StarClass> starClasses) {
+		return new LocalSpatialIndex(name, radius, radius / 2, new LocalSpatialIndex.CellLoader() {
+			@Override
+			public List<Body> loadSphere(Coord center, float sphereRadius) {
+				List<Body> stars = new ArrayList<>();
+				try (CloseableIterator<Body> stream = CachingGalaxyService.this.delegate.streamStarsNear(center, sphereRadius, isMainStar, starClasses)) {
+					stream.forEachRemaining(stars::add);
+				}
+				return stars;
+			}
+
+			@Override
+			public List<Body> loadBox(float xfrom, float xto, float yfrom, float yto, float zfrom, float zto) {
+				List<Body> stars = new ArrayList<>();
+				try (CloseableIterator<Body> stream = CachingGalaxyService.this.delegate.streamStarsWithin(xfrom, xto, yfrom, yto, zfrom, zto, isMainStar, starClasses)) {
+					stream.forEachRemaining(stars::add);
+				}
+				return stars;
+			}
+		});
+	}
+
+	/**
+	 * @return
+	 *      A local index of the planets around the commander, fetched from the uncached backend
+	 */
+	public LocalSpatialIndex newPlanetIndex(String name, float radius, Boolean isTerraformingCandidate, Collection<PlanetClass> planetClasses) {
+		return new LocalSpatialIndex(name, radius, radius / 2,
+				(center, sphereRadius) -> fetchAllPages(pageable -> this.delegate.findPlanetsNear(center, sphereRadius, isTerraformingCandidate, planetClasses, pageable)));
+	}
+
+	/**
+	 * @return
+	 *      A local index of the planets having the given elements around the commander, fetched from the uncached backend
+	 */
+	public LocalSpatialIndex newPlanetsHavingElementsIndex(String name, float radius, Collection<MaterialShare> materialShares) {
+		return new LocalSpatialIndex(name, radius, radius / 2,
+				(center, sphereRadius) -> fetchAllPages(pageable -> this.delegate.findPlanetsHavingElementsNear(center, sphereRadius, materialShares, pageable)));
+	}
+
+	/**
+	 * Drops everything cached about the given system, e.g. because new scan data has arrived for it. Spatial queries are
+	 * not affected.
+	 */
+	public synchronized void invalidateStarSystem(String starSystemName) {
+		this.remove(Arrays.asList("findBodiesByStarSystemName", starSystemName));
+		this.remove(Arrays.asList("findStarSystemByName", starSystemName));
+		this.remove(Arrays.asList("getMaterialTotals", starSystemName));
+	}
+
+	public synchronized void clear() {
+		this.cache.clear();
+		this.cachedObjects = 0L;
+	}
+
+	public long getHits() {
+		return this.hits.get();
+	}
+
+	public long getMisses() {
+		return this.misses.get();
+	}
+
+	public long getEvictions() {
+		return this.evictions.get();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("CachingGalaxyService[entries=%d, objects=%d, hits=%d, misses=%d, evictions=%d]", this.cache.size(), this.cachedObjects, this.hits.get(), this.misses.get(),
+				this.evictions.get());
+	}
+
+	/**
+	 * @param loader
+	 *      Looks up the given names with a single query, returns the results of all of them in any order
+	 * @param nameGetter
+	 *      The name a result belongs to
+	 * @param cacheable
+	 *      Decides whether the results of a name are kept, all others are left out and not cached
+	 */
+	private <T> Map<String, List<T>> batch(String method, Collection<String> names, Function<Collection<String>, List<T>> loader, Function<T, String> nameGetter,
+			Predicate<List<T>> cacheable) {
+		Set<String> uniqueNames = new LinkedHashSet<>(names);
+		Map<String, List<T>> found = new HashMap<>(uniqueNames.size());
+		List<String> missingNames = new ArrayList<>();
+
+		for (String name : uniqueNames) {
+			List<T> cached = this.get(Arrays.asList(method, name));
+			if (cached != null) {
+				found.put(name, cached);
+			} else {
+				missingNames.add(name);
+			}
+		}
+
+		for (int from = 0; from < missingNames.size(); from += BATCH_SIZE) {
+			List<String> chunk = missingNames.subList(from, Math.min(missingNames.size(), from + BATCH_SIZE));
+			try {
+				Map<String, List<T>> loadedByName = new HashMap<>(chunk.size());
+				for (String name : chunk) {
+					loadedByName.put(name, new ArrayList<>());
+				}
+				for (T loaded : loader.apply(chunk)) {
+					List<T> loadedOfName = loadedByName.get(nameGetter.apply(loaded));
+					if (loadedOfName != null) {
+						loadedOfName.add(loaded);
+					}
+				}
+				for (Map.Entry<String, List<T>> entry : loadedByName.entrySet()) {
+					if (cacheable.test(entry.getValue())) {
+						found.put(entry.getKey(), this.put(Arrays.asList(method, entry.getKey()), entry.getValue()));
+					}
+				}
+			} catch (RuntimeException e) {
+				logger.warn("Failed to look up " + chunk.size() + " names with " + method, e);
+			}
+		}
+		if (!missingNames.isEmpty()) {
+			logger.trace(method + ": " + (uniqueNames.size() - missingNames.size()) + " cached, " + missingNames.size() + " fetched with "
+					+ ((missingNames.size() + BATCH_SIZE - 1) / BATCH_SIZE) + " queries");
+		}
+
+		Map<String, List<T>> result = new LinkedHashMap<>(found.size());
+		for (String name : uniqueNames) {
+			if (found.containsKey(name)) {
+				result.put(name, found.get(name));
+			}
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	private synchronized <T> List<T> get(List<Object> key) {
+		CacheEntry entry = this.cache.get(key);
+		if (entry != null && System.currentTimeMillis() - entry.created > TTL_MILLIS) {
+			this.remove(key);
+			entry = null;
+		}
+		if (entry == null) {
+			this.misses.incrementAndGet();
+			return null;
+		}
+		this.hits.incrementAndGet();
+		return (List<T>) entry.values;
+	}
+
+	private synchronized <T> List<T> put(List<Object> key, List<T> values) {
+		List<T> unmodifiableValues = values == null ? Collections.emptyList() : Collections.unmodifiableList(values);
+		this.remove(key);
+		this.cache.put(key, new CacheEntry(unmodifiableValues));
+		this.cachedObjects += 1 + unmodifiableValues.size();
+
+		for (Iterator<CacheEntry> it = this.cache.values().iterator(); this.cachedObjects > MAX_CACHED_OBJECTS && it.hasNext();) {
+			CacheEntry eldest = it.next();
+			if (eldest.values != unmodifiableValues) {
+				it.remove();
+				this.cachedObjects -= 1 + eldest.values.size();
+				this.evictions.incrementAndGet();
+			}
+		}
+
+		return unmodifiableValues;
+	}
+
+	private void remove(List<Object> key) {
+		CacheEntry entry = this.cache.remove(key);
+		if (entry != null) {
+			this.cachedObjects -= 1 + entry.values.size();
+		}
+	}
+
+	/**
+	 * @throws LocalSpatialIndex.TruncatedResultException
+	 *      If there are more than {@link #MAX_RESULTS} results
+	 */
+	private static List<Body> fetchAllPages(PageFetcher<Body> fetcher) {
+		List<Body> result = new ArrayList<>();
+		Page<Body> page = fetcher.fetch(PageRequest.of(0, MAX_RESULTS));
+		while (page != null) {
+			result.addAll(page.getContent());
+			if (!page.hasNext()) {
+				page = null;
+			} else if (page.getNumber() + 1 < MAX_RESULTS / page.getSize()) {
+				page = fetcher.fetch(page.nextPageable());
+			} else {
+				throw new LocalSpatialIndex.TruncatedResultException("More than " + MAX_RESULTS + " results", result);
+			}
+		}
+		return result;
+	}
+
+	@FunctionalInterface
+	private interface PageFetcher<T> {
+
+		Page<T> fetch(Pageable pageable);
+
+	}
+
+	private static class CacheEntry {
+
+		private final List<?> values;
+		private final long created = System.currentTimeMillis();
+
+		CacheEntry(List<?> values) {
+			this.values = values;
+		}
+
+	}
+
+}
@@ -0,0 +1,463 @@
+package borg.ed.sidepanel.galaxy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import borg.ed.galaxy.data.Coord;
+import borg.ed.galaxy.model.Body;
+
+/**
+ * Uniform grid of bodies (stars or planets matching some criteria) covering a sphere of {@link #getRadius()} Ly around
+ * the commander. The grid follows the commander: On each move, only cells which newly intersect the sphere are
+ * fetched, and cells which have fallen far behind are evicted. Queries within the radius are then answered from memory.
+ *
+ * <p>Missing cells are either fetched one by one, or, if that would transfer more than a single enlarged sphere around
+ * the commander (e.g. on startup or after a long jump), by one sphere query which fills all of them at once. If the
+ * sphere query hits the result limit of the backend, it is discarded and the cells are fetched one by one instead. A
+ * cell which hits the limit on its own is split into octants, down to {@link #MAX_SPLIT_DEPTH} levels. If even that is
+ * not enough, the cell keeps what it got for the current query but is not marked as loaded, so no cell is ever kept
+ * with bodies cut off.</p>
+ *
+ * <p>Fetching happens outside of the lock, so queries on cells which are already loaded and invalidations are not
+ * blocked by the network.</p>
+ *
+ * @author <a href="mailto:b.guenther@xsite.de">Boris Guenther</a>
+ */
+public class LocalSpatialIndex {
+
+	static final Logger logger = LoggerFactory.getLogger(LocalSpatialIndex.class);
+
+	/**
+	 * Cells are refetched after this time, so new scans reported to EDDN show up eventually
+	 */
+	public static final long MAX_CELL_AGE_MILLIS = 30 * 60 * 1000L;
+
+	/**
+	 * Cells are kept until they are this many cell sizes outside of the sphere, so moving back and forth does not
+	 * refetch them
+	 */
+	private static final int EVICTION_MARGIN_CELLS = 2;
+
+	/**
+	 * How often a cell which hits the result limit is split into octants before giving up
+	 */
+	private static final int MAX_SPLIT_DEPTH = 2;
+
+	private final String name;
+
+	private final float radius;
+
+	private final float cellSize;
+
+	private final CellLoader loader;
+
+	/**
+	 * Map&lt;cellKey, cell&gt;
+	 */
+	private final Map<Long, Cell> cells = new HashMap<>();
+
+	/**
+	 * Increased on every invalidation, so cells which have been fetched while an invalidation happened are not kept
+	 */
+	private long generation = 0L;
+
+	/**
+	 * @param name
+	 *      For logging only
+	 * @param radius
+	 *      Radius of the sphere around the commander which is kept loaded
+	 * @param cellSize
+	 *      Edge length of the grid cells
+	 */
+	public LocalSpatialIndex(String name, float radius, float cellSize, CellLoader loader) {
+		this.name = name;
+		this.radius = radius;
+		this.cellSize = cellSize;
+		this.loader = loader;
+	}
+
+	public float getRadius() {
+		return this.radius;
+	}
+
+	/**
+	 * @param range
+	 *      Must not exceed {@link #getRadius()}
+	 * @return
+	 *      All bodies within <code>range</code> Ly of the given coord, in no particular order
+	 */
+	public List<Body> findWithin(Coord coord, float range) {
+		if (range > this.radius) {
+			throw new IllegalArgumentException("Range of " + range + " Ly exceeds the radius of " + this.radius + " Ly of " + this.name);
+		}
+
+		this.slideTo(coord);
+
+		synchronized (this) {
+			return this.collectWithin(coord, range);
+		}
+	}
+
+	private List<Body> collectWithin(Coord coord, float range) {
+		final float x = coord.getX();
+		final float y = coord.getY();
+		final float z = coord.getZ();
+		final float rangeSquared = range * range;
+		List<Body> result = new ArrayList<>();
+		for (int cx = this.cellIndex(x - range); cx <= this.cellIndex(x + range); cx++) {
+			for (int cy = this.cellIndex(y - range); cy <= this.cellIndex(y + range); cy++) {
+				for (int cz = this.cellIndex(z - range); cz <= this.cellIndex(z + range); cz++) {
+					Cell cell = this.cells.get(cellKey(cx, cy, cz));
+					if (cell != null && this.minDistanceSquared(cx, cy, cz, x, y, z) <= rangeSquared) {
+						for (Body body : cell.bodies) {
+							Coord c = body.getCoord();
+							float dx = c.getX() - x;
+							float dy = c.getY() - y;
+							float dz = c.getZ() - z;
+							if (dx * dx + dy * dy + dz * dz <= rangeSquared) {
+								result.add(body);
+							}
+						}
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the <code>k</code> nearest bodies without collecting and sorting all bodies in range. Cells are visited in
+	 * order of their distance, candidates are kept in a max-heap of size <code>k</code> keyed by their squared distance,
+	 * and the search stops as soon as the next cell is farther away than the worst of <code>k</code> candidates.
+	 *
+	 * @param range
+	 *      Must not exceed {@link #getRadius()}
+	 * @param filter
+	 *      Only bodies accepted by the filter are returned, may be <code>null</code>
+	 * @return
+	 *      At most <code>k</code> bodies within <code>range</code> Ly of the given coord, nearest first
+	 */
+	public List<Body> findNearest(Coord coord, float range, int k, Predicate<Body> filter) {
+		if (range > this.radius) {
+			throw new IllegalArgumentException("Range of " + range + " Ly exceeds the radius of " + this.radius + " Ly of " + this.name);
+		}
+		if (k <= 0) {
+			return new ArrayList<>(0);
+		}
+
+		this.slideTo(coord);
+
+		synchronized (this) {
+			return this.collectNearest(coord, range, k, filter);
+		}
+	}
+
+	private List<Body> collectNearest(Coord coord, float range, int k, Predicate<Body> filter) {
+		final float x = coord.getX();
+		final float y = coord.getY();
+		final float z = coord.getZ();
+		final float rangeSquared = range * range;
+
+		// Cells intersecting the sphere, nearest first
+		List<Cell> candidateCells = new ArrayList<>();
+		List<Float> candidateDistances = new ArrayList<>();
+		for (int cx = this.cellIndex(x - range); cx <= this.cellIndex(x + range); cx++) {
+			for (int cy = this.cellIndex(y - range); cy <= this.cellIndex(y + range); cy++) {
+				for (int cz = this.cellIndex(z - range); cz <= this.cellIndex(z + range); cz++) {
+					Cell cell = this.cells.get(cellKey(cx, cy, cz));
+					float minDistanceSquared = this.minDistanceSquared(cx, cy, cz, x, y, z);
+					if (cell != null && !cell.bodies.isEmpty() && minDistanceSquared <= rangeSquared) {
+						candidateCells.add(cell);
+						candidateDistances.add(minDistanceSquared);
+					}
+				}
+			}
+		}
+		Integer[] order = new Integer[candidateCells.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (i1, i2) -> Float.compare(candidateDistances.get(i1), candidateDistances.get(i2)));
+
+		BoundedMaxHeap heap = new BoundedMaxHeap(k);
+		for (Integer i : order) {
+			if (heap.isFull() && candidateDistances.get(i) > heap.maxDistanceSquared()) {
+				break; // This and all following cells are too far away to improve the result
+			}
+			for (Body body : candidateCells.get(i).bodies) {
+				Coord c = body.getCoord();
+				float dx = c.getX() - x;
+				float dy = c.getY() - y;
+				float dz = c.getZ() - z;
+				float distanceSquared = dx * dx + dy * dy + dz * dz;
+				if (distanceSquared <= rangeSquared && (!heap.isFull() || distanceSquared < heap.maxDistanceSquared()) && (filter == null || filter.test(body))) {
+					heap.offer(body, distanceSquared);
+				}
+			}
+		}
+		return heap.drainAscending();
+	}
+
+	/**
+	 * Drops the cell containing the given coord, e.g. because new scans have been reported for a system in it. The next
+	 * query fetches only this cell again.
+	 */
+	public synchronized void invalidate(Coord coord) {
+		this.cells.remove(cellKey(this.cellIndex(coord.getX()), this.cellIndex(coord.getY()), this.cellIndex(coord.getZ())));
+		this.generation++;
+	}
+
+	/**
+	 * Drops all cells, the next query will fetch everything again
+	 */
+	public synchronized void clear() {
+		this.cells.clear();
+		this.generation++;
+	}
+
+	/**
+	 * Evicts far away and expired cells, then fetches all cells intersecting the sphere around the given coord which are
+	 * not loaded yet. Only evicting and storing the cells happens under the lock.
+	 */
+	private void slideTo(Coord coord) {
+		final float x = coord.getX();
+		final float y = coord.getY();
+		final float z = coord.getZ();
+		final long now = System.currentTimeMillis();
+
+		final List<Cell> missing = new ArrayList<>();
+		final long generationBefore;
+		synchronized (this) {
+			final float evictionDistance = this.radius + EVICTION_MARGIN_CELLS * this.cellSize;
+			for (Iterator<Cell> it = this.cells.values().iterator(); it.hasNext();) {
+				Cell cell = it.next();
+				if (now - cell.loaded > MAX_CELL_AGE_MILLIS || this.minDistanceSquared(cell.cx, cell.cy, cell.cz, x, y, z) > evictionDistance * evictionDistance) {
+					it.remove();
+				}
+			}
+
+			final float radiusSquared = this.radius * this.radius;
+			for (int cx = this.cellIndex(x - this.radius); cx <= this.cellIndex(x + this.radius); cx++) {
+				for (int cy = this.cellIndex(y - this.radius); cy <= this.cellIndex(y + this.radius); cy++) {
+					for (int cz = this.cellIndex(z - this.radius); cz <= this.cellIndex(z + this.radius); cz++) {
+						if (!this.cells.containsKey(cellKey(cx, cy, cz)) && this.minDistanceSquared(cx, cy, cz, x, y, z) <= radiusSquared) {
+							missing.add(new Cell(cx, cy, cz, now));
+						}
+					}
+				}
+			}
+			generationBefore = this.generation;
+		}
+		if (missing.isEmpty()) {
+			return;
+		}
+
+		// Every cell intersecting the sphere lies completely within the sphere enlarged by one cell diagonal
+		final float cellDiagonal = (float) Math.sqrt(3) * this.cellSize;
+		final double bulkVolume = Math.pow(this.radius + cellDiagonal, 3);
+		final double incrementalVolume = missing.size() * Math.pow(cellDiagonal / 2, 3);
+		long start = System.currentTimeMillis();
+		if (incrementalVolume < bulkVolume || !this.loadSphere(coord, this.radius + cellDiagonal, missing)) {
+			this.loadOneByOne(missing);
+		}
+
+		synchronized (this) {
+			if (this.generation != generationBefore) {
+				// Might have been fetched before the invalidation, use them for this query only
+				missing.forEach(cell -> cell.loaded = 0L);
+			}
+			for (Cell cell : missing) {
+				this.cells.put(cellKey(cell.cx, cell.cy, cell.cz), cell);
+			}
+			logger.debug(this.name + ": Loaded " + missing.size() + " cells in " + (System.currentTimeMillis() - start) + " ms, " + this.cells.size() + " cells in memory");
+		}
+	}
+
+	/**
+	 * @return
+	 *      <code>false</code> if the sphere query has hit the result limit, the cells are left empty then
+	 */
+	private boolean loadSphere(Coord center, float sphereRadius, List<Cell> targetCells) {
+		try {
+			this.assign(this.loader.loadSphere(center, sphereRadius), targetCells);
+			return true;
+		} catch (TruncatedResultException e) {
+			logger.info(this.name + ": Sphere of " + sphereRadius + " Ly hit the result limit at " + e.getPartialResult().size() + " bodies, loading " + targetCells.size()
+					+ " cells one by one");
+			return false;
+		}
+	}
+
+	/**
+	 * Cells which are still incomplete after splitting are left with <code>loaded = 0</code>, so they are used for the
+	 * current query only and fetched again by the next one
+	 */
+	private void loadOneByOne(List<Cell> targetCells) {
+		for (Cell cell : targetCells) {
+			if (!this.loadBox(cell, this.cellMin(cell.cx), this.cellMin(cell.cx + 1), this.cellMin(cell.cy), this.cellMin(cell.cy + 1), this.cellMin(cell.cz),
+					this.cellMin(cell.cz + 1), 0)) {
+				logger.warn(this.name + ": Cell " + cell.cx + "/" + cell.cy + "/" + cell.cz + " hits the result limit even when split " + MAX_SPLIT_DEPTH
+						+ " times, using its " + cell.bodies.size() + " bodies for this query only");
+				cell.loaded = 0L;
+			}
+		}
+	}
+
+	/**
+	 * Adds the bodies within the box (lower bounds inclusive, upper bounds exclusive) to the cell. Splits the box into
+	 * octants if it hits the result limit.
+	 *
+	 * @return
+	 *      <code>false</code> if the bodies of the box are incomplete
+	 */
+	private boolean loadBox(Cell cell, float xfrom, float xto, float yfrom, float yto, float zfrom, float zto, int depth) {
+		List<Body> bodies;
+		boolean complete = true;
+		try {
+			bodies = this.loader.loadBox(xfrom, xto, yfrom, yto, zfrom, zto);
+		} catch (TruncatedResultException e) {
+			if (depth < MAX_SPLIT_DEPTH) {
+				final float xmid = (xfrom + xto) / 2, ymid = (yfrom + yto) / 2, zmid = (zfrom + zto) / 2;
+				complete &= this.loadBox(cell, xfrom, xmid, yfrom, ymid, zfrom, zmid, depth + 1);
+				complete &= this.loadBox(cell, xmid, xto, yfrom, ymid, zfrom, zmid, depth + 1);
+				complete &= this.loadBox(cell, xfrom, xmid, ymid, yto, zfrom, zmid, depth + 1);
+				complete &= this.loadBox(cell, xmid, xto, ymid, yto, zfrom, zmid, depth + 1);
+				complete &= this.loadBox(cell, xfrom, xmid, yfrom, ymid, zmid, zto, depth + 1);
+				complete &= this.loadBox(cell, xmid, xto, yfrom, ymid, zmid, zto, depth + 1);
+				complete &= this.loadBox(cell, xfrom, xmid, ymid, yto, zmid, zto, depth + 1);
+				complete &= this.loadBox(cell, xmid, xto, ymid, yto, zmid, zto, depth + 1);
+				return complete;
+			}
+			bodies = e.getPartialResult();
+			complete = false;
+		}
+
+		// Bodies on a shared face are returned for both boxes, but only belong to the upper one
+		List<Cell> targetCell = Collections.singletonList(cell);
+		List<Body> withinBox = new ArrayList<>(bodies.size());
+		for (Body body : bodies) {
+			Coord c = body.getCoord();
+			if (c != null && c.getX() >= xfrom && c.getX() < xto && c.getY() >= yfrom && c.getY() < yto && c.getZ() >= zfrom && c.getZ() < zto) {
+				withinBox.add(body);
+			}
+		}
+		this.assign(withinBox, targetCell);
+		return complete;
+	}
+
+	/**
+	 * Puts the given bodies into those of the given cells they belong to, ignoring all others
+	 */
+	private void assign(List<Body> bodies, List<Cell> targetCells) {
+		Map<Long, Cell> targetCellsByKey = new HashMap<>();
+		for (Cell cell : targetCells) {
+			targetCellsByKey.put(cellKey(cell.cx, cell.cy, cell.cz), cell);
+		}
+		for (Body body : bodies) {
+			Coord c = body.getCoord();
+			if (c != null) {
+				Cell cell = targetCellsByKey.get(cellKey(this.cellIndex(c.getX()), this.cellIndex(c.getY()), this.cellIndex(c.getZ())));
+				if (cell != null) {
+					cell.bodies.add(body);
+				}
+			}
+		}
+	}
+
+	private int cellIndex(float value) {
+		return (int) Math.floor(value / this.cellSize);
+	}
+
+	private float cellMin(int cellIndex) {
+		return cellIndex * this.cellSize;
+	}
+
+	private float minDistanceSquared(int cx, int cy, int cz, float x, float y, float z) {
+		float dx = Math.max(0f, Math.max(this.cellMin(cx) - x, x - this.cellMin(cx + 1)));
+		float dy = Math.max(0f, Math.max(this.cellMin(cy) - y, y - this.cellMin(cy + 1)));
+		float dz = Math.max(0f, Math.max(this.cellMin(cz) - z, z - this.cellMin(cz + 1)));
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	private static long cellKey(int cx, int cy, int cz) {
+		return ((cx & 0x1FFFFFL) << 42) | ((cy & 0x1FFFFFL) << 21) | (cz & 0x1FFFFFL);
+	}
+
+	/**
+	 * Fetches the bodies of a layer from the galaxy
+	 */
+	public interface CellLoader {
+
+		/**
+		 * @throws TruncatedResultException
+		 *      If the backend has more bodies than it returns in a single query
+		 */
+		List<Body> loadSphere(Coord center, float radius);
+
+		/**
+		 * Defaults to the circumsphere of the box, filtered to the box. Override if the backend can query boxes directly.
+		 */
+		default List<Body> loadBox(float xfrom, float xto, float yfrom, float yto, float zfrom, float zto) {
+			Coord center = new Coord((xfrom + xto) / 2, (yfrom + yto) / 2, (zfrom + zto) / 2);
+			float dx = xto - xfrom;
+			float dy = yto - yfrom;
+			float dz = zto - zfrom;
+			List<Body> result = new ArrayList<>();
+			for (Body body : this.loadSphere(center, (float) Math.sqrt(dx * dx + dy * dy + dz * dz) / 2)) {
+				Coord c = body.getCoord();
+				if (c != null && c.getX() >= xfrom && c.getX() < xto && c.getY() >= yfrom && c.getY() < yto && c.getZ() >= zfrom && c.getZ() < zto) {
+					result.add(body);
+				}
+			}
+			return result;
+		}
+
+	}
+
+	/**
+	 * Thrown by a {@link CellLoader} whose query has hit the result limit of the backend
+	 */
+	public static class TruncatedResultException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<Body> partialResult;
+
+		public TruncatedResultException(String message, List<Body> partialResult) {
+			super(message);
+			this.partialResult = partialResult;
+		}
+
+		public List<Body> getPartialResult() {
+			return this.partialResult;
+		}
+
+	}
+
+	private static class Cell {
+
+		private final int cx;
+		private final int cy;
+		private final int cz;
+		private long loaded;
+		private final List<Body> bodies = new ArrayList<>();
+
+		Cell(int cx, int cy, int cz, long loaded) {
+			this.cx = cx;
+			this.cy = cy;
+			this.cz = cz;
+			this.loaded = loaded;
+		}
+
+	}
+
+}
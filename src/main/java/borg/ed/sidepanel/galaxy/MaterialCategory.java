@@ -0,0 +1,66 @@
+package borg.ed.sidepanel.galaxy;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+
+import borg.ed.galaxy.model.Body;
+import borg.ed.galaxy.model.Body.MaterialShare;
+import lombok.Getter;
+
+/**
+ * A material search of the discovery panel: Planets within a range which contain all of the given elements, each with
+ * at least the given percentage (or any amount if the percentage is <code>null</code>).
+ *
+ * @author <a href="mailto:b.guenther@xsite.de">Boris Guenther</a>
+ */
+@Getter
+public class MaterialCategory {
+
+	private final String name;
+
+	private final float range;
+
+	private final int limit;
+
+	private final List<MaterialShare> criteria;
+
+	/**
+	 * @param limit
+	 *      Only the <code>limit</code> nearest matches are wanted, 0 for all of them
+	 */
+	public MaterialCategory(String name, float range, int limit, List<MaterialShare> criteria) {
+		this.name = name;
+		this.range = range;
+		this.limit = limit;
+		this.criteria = Collections.unmodifiableList(criteria);
+	}
+
+	public boolean matches(Body body) {
+		if (body.getMaterialShares() == null) {
+			return false;
+		}
+		for (MaterialShare criterion : this.criteria) {
+			if (!contains(body, criterion)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean contains(Body body, MaterialShare criterion) {
+		for (MaterialShare share : body.getMaterialShares()) {
+			if (criterion.getName().equals(share.getName()) && share.getPercent() != null) {
+				BigDecimal min = criterion.getPercent();
+				return min == null ? share.getPercent().signum() > 0 : share.getPercent().compareTo(min) >= 0;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return this.name;
+	}
+
+}
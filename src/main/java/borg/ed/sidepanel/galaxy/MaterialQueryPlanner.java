@@ -0,0 +1,219 @@
+package borg.ed.sidepanel.galaxy;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import borg.ed.galaxy.constants.Element;
+import borg.ed.galaxy.data.Coord;
+import borg.ed.galaxy.model.Body;
+import borg.ed.galaxy.model.Body.MaterialShare;
+
+/**
+ * Answers several {@link MaterialCategory material searches} with as few backend queries as possible.
+ *
+ * <p>The backend can only AND element criteria, so categories which do not share an element cannot be fetched with a
+ * single query. Instead, each category is assigned to the rarest element it requires, and categories with the same
+ * rarest element and range share one {@link LocalSpatialIndex}. Its query only contains the criteria all of these
+ * categories have in common, i.e. it returns a superset of each of them.</p>
+ *
+ * <p>{@link #query(Coord, Executor)} fetches the bodies of all indexes concurrently, then makes a single pass over the
+ * bodies of each index, computes the distance of each body once and classifies it into every category of the group it
+ * matches. Categories with a limit only keep their nearest matches in a bounded heap.</p>
+ *
+ * @author <a href="mailto:b.guenther@xsite.de">Boris Guenther</a>
+ */
+public class MaterialQueryPlanner {
+
+	static final Logger logger = LoggerFactory.getLogger(MaterialQueryPlanner.class);
+
+	/**
+	 * Rarest first. Elements not listed are considered more common than all listed ones.
+	 */
+	private static final List<Element> RARITY_ORDER = Arrays.asList(Element.POLONIUM, Element.YTTRIUM, Element.NIOBIUM, Element.CADMIUM, Element.ARSENIC, Element.GERMANIUM,
+			Element.VANADIUM);
+
+	private final List<MaterialCategory> categories;
+
+	private final List<Group> groups = new ArrayList<>();
+
+	public MaterialQueryPlanner(CachingGalaxyService galaxyService, List<MaterialCategory> categories) {
+		this.categories = Collections.unmodifiableList(new ArrayList<>(categories));
+
+		Map<String, List<MaterialCategory>> categoriesByGroupKey = new LinkedHashMap<>();
+		for (MaterialCategory category : categories) {
+			String groupKey = rarestElement(category) + "@" + category.getRange();
+			categoriesByGroupKey.computeIfAbsent(groupKey, k -> new ArrayList<>()).add(category);
+		}
+
+		for (List<MaterialCategory> groupCategories : categoriesByGroupKey.values()) {
+			List<MaterialShare> commonCriteria = commonCriteria(groupCategories);
+			float range = groupCategories.get(0).getRange();
+			String name = "Materials " + groupCategories;
+			this.groups.add(new Group(galaxyService.newPlanetsHavingElementsIndex(name, range, commonCriteria), range, groupCategories));
+			logger.debug(name + ": " + range + " Ly, " + commonCriteria.size() + " criteria");
+		}
+	}
+
+	public List<MaterialCategory> getCategories() {
+		return this.categories;
+	}
+
+	/**
+	 * @return
+	 *      The largest range of all categories
+	 */
+	public float getMaxRange() {
+		float maxRange = 0f;
+		for (MaterialCategory category : this.categories) {
+			maxRange = Math.max(maxRange, category.getRange());
+		}
+		return maxRange;
+	}
+
+	/**
+	 * Drops the index cells containing the given coord, see {@link LocalSpatialIndex#invalidate(Coord)}
+	 */
+	public void invalidate(Coord coord) {
+		for (Group group : this.groups) {
+			group.index.invalidate(coord);
+		}
+	}
+
+	/**
+	 * Fetches the bodies of all indexes on the given executor and classifies them once all of them have arrived. Does
+	 * not block the calling thread.
+	 *
+	 * @return
+	 *      Map&lt;category, matches&gt;, the matches of each category nearest first and limited to its limit
+	 */
+	public CompletableFuture<Map<MaterialCategory, List<Body>>> query(Coord coord, Executor executor) {
+		List<CompletableFuture<List<Body>>> bodiesFutures = new ArrayList<>(this.groups.size());
+		for (Group group : this.groups) {
+			bodiesFutures.add(CompletableFuture.supplyAsync(() -> group.index.findWithin(coord, group.range), executor));
+		}
+
+		return CompletableFuture.allOf(bodiesFutures.toArray(new CompletableFuture<?>[bodiesFutures.size()])).thenApply(v -> {
+			List<List<Body>> bodiesByGroup = new ArrayList<>(bodiesFutures.size());
+			for (CompletableFuture<List<Body>> bodiesFuture : bodiesFutures) {
+				bodiesByGroup.add(bodiesFuture.join());
+			}
+			return this.classify(coord, bodiesByGroup);
+		});
+	}
+
+	/**
+	 * @param bodiesByGroup
+	 *      The bodies found by the index of each group, in the order of {@link #groups}
+	 */
+	private Map<MaterialCategory, List<Body>> classify(Coord coord, List<List<Body>> bodiesByGroup) {
+		final float x = coord.getX();
+		final float y = coord.getY();
+		final float z = coord.getZ();
+
+		Map<MaterialCategory, BoundedMaxHeap> nearest = new LinkedHashMap<>();
+		Map<MaterialCategory, List<Body>> all = new LinkedHashMap<>();
+		for (MaterialCategory category : this.categories) {
+			if (category.getLimit() > 0) {
+				nearest.put(category, new BoundedMaxHeap(category.getLimit()));
+			} else {
+				all.put(category, new ArrayList<>());
+			}
+		}
+
+		for (int i = 0; i < this.groups.size(); i++) {
+			Group group = this.groups.get(i);
+			for (Body body : bodiesByGroup.get(i)) {
+				Coord c = body.getCoord();
+				float dx = c.getX() - x;
+				float dy = c.getY() - y;
+				float dz = c.getZ() - z;
+				float distanceSquared = dx * dx + dy * dy + dz * dz;
+
+				for (MaterialCategory category : group.categories) {
+					if (category.matches(body)) {
+						BoundedMaxHeap heap = nearest.get(category);
+						if (heap != null) {
+							heap.offer(body, distanceSquared);
+						} else {
+							all.get(category).add(body);
+						}
+					}
+				}
+			}
+		}
+
+		Map<MaterialCategory, List<Body>> result = new LinkedHashMap<>();
+		for (MaterialCategory category : this.categories) {
+			BoundedMaxHeap heap = nearest.get(category);
+			result.put(category, heap != null ? heap.drainAscending() : all.get(category));
+		}
+		return result;
+	}
+
+	private static Element rarestElement(MaterialCategory category) {
+		Element rarest = null;
+		for (MaterialShare criterion : category.getCriteria()) {
+			if (rarest == null || rarity(criterion.getName()) < rarity(rarest)) {
+				rarest = criterion.getName();
+			}
+		}
+		return rarest;
+	}
+
+	private static int rarity(Element element) {
+		int idx = RARITY_ORDER.indexOf(element);
+		return idx < 0 ? RARITY_ORDER.size() : idx;
+	}
+
+	/**
+	 * @return
+	 *      The elements required by all of the given categories, each with the lowest of their minimum percentages
+	 */
+	private static List<MaterialShare> commonCriteria(List<MaterialCategory> categories) {
+		List<MaterialShare> result = new ArrayList<>();
+		for (MaterialShare candidate : categories.get(0).getCriteria()) {
+			BigDecimal min = candidate.getPercent();
+			boolean common = true;
+			for (MaterialCategory category : categories) {
+				MaterialShare criterion = category.getCriteria().stream().filter(ms -> candidate.getName().equals(ms.getName())).findFirst().orElse(null);
+				if (criterion == null) {
+					common = false;
+					break;
+				}
+				min = min == null || criterion.getPercent() == null ? null : min.min(criterion.getPercent());
+			}
+			if (common) {
+				MaterialShare share = new MaterialShare();
+				share.setName(candidate.getName());
+				share.setPercent(min);
+				result.add(share);
+			}
+		}
+		return result;
+	}
+
+	private static class Group {
+
+		private final LocalSpatialIndex index;
+		private final float range;
+		private final List<MaterialCategory> categories;
+
+		Group(LocalSpatialIndex index, float range, List<MaterialCategory> categories) {
+			this.index = index;
+			this.range = range;
+			this.categories = categories;
+		}
+
+	}
+
+}
@@ -0,0 +1,106 @@
+package borg.ed.sidepanel.galaxy;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import borg.ed.galaxy.constants.Element;
+import borg.ed.galaxy.model.Body;
+import borg.ed.galaxy.model.Body.MaterialShare;
+
+/**
+ * The material percentages of all bodies of a system summed up per element, stored as a float array indexed by
+ * {@link Element#ordinal()}.
+ *
+ * @author <a href="mailto:b.guenther@xsite.de">Boris Guenther</a>
+ */
+public final class MaterialTotals {
+
+	private static final int N_ELEMENTS = Element.values().length;
+
+	private final float[] percent;
+
+	private MaterialTotals(float[] percent) {
+		this.percent = percent;
+	}
+
+	public static MaterialTotals of(Collection<Body> bodies) {
+		float[] percent = new float[N_ELEMENTS];
+		for (Body body : bodies) {
+			if (body.getMaterialShares() != null) {
+				for (MaterialShare share : body.getMaterialShares()) {
+					if (share.getName() != null && share.getPercent() != null) {
+						percent[share.getName().ordinal()] += share.getPercent().floatValue();
+					}
+				}
+			}
+		}
+		return new MaterialTotals(percent);
+	}
+
+	public float get(Element element) {
+		return this.percent[element.ordinal()];
+	}
+
+	public boolean meets(Threshold threshold) {
+		for (int i = 0; i < threshold.ordinals.length; i++) {
+			if (this.percent[threshold.ordinals[i]] < threshold.minimums[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public static Threshold.Builder threshold() {
+		return new Threshold.Builder();
+	}
+
+	@Override
+	public String toString() {
+		return "MaterialTotals" + Arrays.toString(this.percent);
+	}
+
+	/**
+	 * Minimum totals of some elements, checked by {@link MaterialTotals#meets(Threshold)} without any allocation
+	 */
+	public static final class Threshold {
+
+		private final int[] ordinals;
+		private final float[] minimums;
+
+		private Threshold(int[] ordinals, float[] minimums) {
+			this.ordinals = ordinals;
+			this.minimums = minimums;
+		}
+
+		public static final class Builder {
+
+			private int[] ordinals = new int[0];
+			private float[] minimums = new float[0];
+
+			private Builder() {
+			}
+
+			public Builder atLeast(Element element, float minPercent) {
+				this.ordinals = Arrays.copyOf(this.ordinals, this.ordinals.length + 1);
+				this.minimums = Arrays.copyOf(this.minimums, this.minimums.length + 1);
+				this.ordinals[this.ordinals.length - 1] = element.ordinal();
+				this.minimums[this.minimums.length - 1] = minPercent;
+				return this;
+			}
+
+			/**
+			 * Any amount greater than zero
+			 */
+			public Builder present(Element element) {
+				return this.atLeast(element, Float.MIN_VALUE);
+			}
+
+			public Threshold build() {
+				return new Threshold(this.ordinals.clone(), this.minimums.clone());
+			}
+
+		}
+
+	}
+
+}
@@ -0,0 +1,353 @@
+package borg.ed.sidepanel.galaxy;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Random;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.util.CloseableIterator;
+
+import borg.ed.galaxy.constants.StarClass;
+import borg.ed.galaxy.data.Coord;
+import borg.ed.galaxy.model.Body;
+import borg.ed.galaxy.model.StarSystem;
+import borg.ed.galaxy.service.GalaxyService;
+
+/**
+ * The star map only needs the position and star class of the known systems and their entry stars. This cache fetches
+ * them once per grid cell, keeps only packed primitive records (three floats and the star class ordinal, or
+ * {@link #NO_STAR_CLASS} for systems) and drops the entities right away. Boxes are then answered from memory without
+ * creating a single object per point.
+ *
+ * <p>Cells are cubes of {@link #BASE_CELL_SIZE} Ly times a power of two. The level is chosen per query so a box spans
+ * at most {@link #MAX_CELLS_PER_AXIS} cells per axis, so zooming out does not result in thousands of tiny cells. All
+ * cells of a query which are not loaded yet are fetched together with one query per stream. The least recently used
+ * cells are dropped once all cells together hold more than {@link #MAX_POINTS} points, and cells are fetched again after
+ * {@link #MAX_CELL_AGE_MILLIS} to pick up new data.</p>
+ *
+ * <p>The cells of the current query are never dropped, so a single query must not exceed {@link #MAX_POINTS} either.
+ * Each cell therefore keeps at most {@link #MAX_POINTS_PER_CELL} points. A cell with more points keeps an even random
+ * sample of them (reservoir sampling over the stream), and every sampled point then stands for
+ * {@link PointConsumer#accept(float, float, float, int, float) weight} points. Such a cell is complete in the sense
+ * that it covers its whole volume, so it is cached like any other.</p>
+ *
+ * @author <a href="mailto:b.guenther@xsite.de">Boris Guenther</a>
+ */
+public class StarFieldPointCache {
+
+	static final Logger logger = LoggerFactory.getLogger(StarFieldPointCache.class);
+
+	/**
+	 * Star class ordinal of systems without a known entry star
+	 */
+	public static final int NO_STAR_CLASS = -1;
+
+	public static final float BASE_CELL_SIZE = 128f; // Ly
+
+	public static final int MAX_CELLS_PER_AXIS = 4;
+
+	public static final int MAX_POINTS = 4_000_000;
+
+	/**
+	 * A query spans at most one more cell per axis than {@link #MAX_CELLS_PER_AXIS}, so all cells of a query together
+	 * never hold more than {@link #MAX_POINTS} points
+	 */
+	public static final int MAX_POINTS_PER_CELL = MAX_POINTS / ((MAX_CELLS_PER_AXIS + 1) * (MAX_CELLS_PER_AXIS + 1) * (MAX_CELLS_PER_AXIS + 1));
+
+	public static final long MAX_CELL_AGE_MILLIS = 30 * 60 * 1000L;
+
+	private static final int MAX_LEVEL = 15;
+
+	private final GalaxyService galaxyService;
+
+	/**
+	 * Map&lt;cellKey, cell&gt; in access order
+	 */
+	private final LinkedHashMap<Long, Cell> cells = new LinkedHashMap<>(1024, 0.75f, /* accessOrder = */ true);
+
+	private long totalPoints = 0;
+
+	public StarFieldPointCache(GalaxyService galaxyService) {
+		this.galaxyService = galaxyService;
+	}
+
+	/**
+	 * Calls the consumer for every known system and entry star within the box (bounds inclusive), systems with
+	 * {@link #NO_STAR_CLASS}. Entry stars are reported in addition to their system, in no particular order.
+	 */
+	public synchronized void forEachWithin(float xfrom, float xto, float yfrom, float yto, float zfrom, float zto, PointConsumer consumer) {
+		final int level = levelFor(Math.max(xto - xfrom, Math.max(yto - yfrom, zto - zfrom)));
+		final float cellSize = cellSize(level);
+		final int cx0 = cellIndex(xfrom, cellSize);
+		final int cx1 = cellIndex(xto, cellSize);
+		final int cy0 = cellIndex(yfrom, cellSize);
+		final int cy1 = cellIndex(yto, cellSize);
+		final int cz0 = cellIndex(zfrom, cellSize);
+		final int cz1 = cellIndex(zto, cellSize);
+
+		this.loadMissing(level, cx0, cx1, cy0, cy1, cz0, cz1);
+
+		for (int cx = cx0; cx <= cx1; cx++) {
+			for (int cy = cy0; cy <= cy1; cy++) {
+				for (int cz = cz0; cz <= cz1; cz++) {
+					Cell cell = this.cells.get(cellKey(level, cx, cy, cz));
+					if (cell == null) {
+						continue;
+					}
+					final float weight = cell.getWeight();
+					final float[] coords = cell.coords;
+					for (int i = 0, j = 0; i < cell.size; i++, j += 3) {
+						float x = coords[j];
+						float y = coords[j + 1];
+						float z = coords[j + 2];
+						if (x >= xfrom && x <= xto && y >= yfrom && y <= yto && z >= zfrom && z <= zto) {
+							consumer.accept(x, y, z, cell.starClasses[i], weight);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		this.cells.clear();
+		this.totalPoints = 0;
+	}
+
+	public synchronized long getTotalPoints() {
+		return this.totalPoints;
+	}
+
+	/**
+	 * Evicts expired cells of the given range and fetches all cells of it which are not loaded, with one query per stream
+	 * over their bounding box. Points are assigned by their cell index, so only the grid of the missing cells is
+	 * allocated, not a map entry per point.
+	 */
+	private void loadMissing(int level, int cx0, int cx1, int cy0, int cy1, int cz0, int cz1) {
+		final long now = System.currentTimeMillis();
+
+		int mx0 = Integer.MAX_VALUE, mx1 = Integer.MIN_VALUE, my0 = Integer.MAX_VALUE, my1 = Integer.MIN_VALUE, mz0 = Integer.MAX_VALUE, mz1 = Integer.MIN_VALUE;
+		for (int cx = cx0; cx <= cx1; cx++) {
+			for (int cy = cy0; cy <= cy1; cy++) {
+				for (int cz = cz0; cz <= cz1; cz++) {
+					Long key = cellKey(level, cx, cy, cz);
+					Cell cell = this.cells.get(key);
+					if (cell != null && now - cell.loaded > MAX_CELL_AGE_MILLIS) {
+						this.cells.remove(key);
+						this.totalPoints -= cell.size;
+						cell = null;
+					}
+					if (cell == null) {
+						mx0 = Math.min(mx0, cx);
+						mx1 = Math.max(mx1, cx);
+						my0 = Math.min(my0, cy);
+						my1 = Math.max(my1, cy);
+						mz0 = Math.min(mz0, cz);
+						mz1 = Math.max(mz1, cz);
+					}
+				}
+			}
+		}
+		if (mx0 > mx1) {
+			return;
+		}
+
+		final float cellSize = cellSize(level);
+		final int nx = mx1 - mx0 + 1;
+		final int ny = my1 - my0 + 1;
+		final int nz = mz1 - mz0 + 1;
+		final Cell[] grid = new Cell[nx * ny * nz];
+		for (int cx = mx0; cx <= mx1; cx++) {
+			for (int cy = my0; cy <= my1; cy++) {
+				for (int cz = mz0; cz <= mz1; cz++) {
+					if (!this.cells.containsKey(cellKey(level, cx, cy, cz))) {
+						grid[((cx - mx0) * ny + (cy - my0)) * nz + (cz - mz0)] = new Cell(now);
+					}
+				}
+			}
+		}
+
+		final float xfrom = mx0 * cellSize, xto = (mx1 + 1) * cellSize;
+		final float yfrom = my0 * cellSize, yto = (my1 + 1) * cellSize;
+		final float zfrom = mz0 * cellSize, zto = (mz1 + 1) * cellSize;
+		final Random random = new Random();
+		long start = System.currentTimeMillis();
+		try (CloseableIterator<StarSystem> stream = this.galaxyService.streamAllSystemsWithin(xfrom, xto, yfrom, yto, zfrom, zto)) {
+			while (stream.hasNext()) {
+				Coord c = stream.next().getCoord();
+				assign(grid, cellSize, mx0, my0, mz0, nx, ny, nz, c, NO_STAR_CLASS, random);
+			}
+		}
+		try (CloseableIterator<Body> stream = this.galaxyService.streamStarsWithin(xfrom, xto, yfrom, yto, zfrom, zto, /* isMainStar = */ Boolean.TRUE, /* starClasses = */ null)) {
+			while (stream.hasNext()) {
+				Body mainStar = stream.next();
+				if (mainStar.getStarClass() != null) {
+					assign(grid, cellSize, mx0, my0, mz0, nx, ny, nz, mainStar.getCoord(), mainStar.getStarClass().ordinal(), random);
+				}
+			}
+		}
+
+		int nLoaded = 0;
+		int nSampled = 0;
+		long nPoints = 0;
+		for (int cx = mx0; cx <= mx1; cx++) {
+			for (int cy = my0; cy <= my1; cy++) {
+				for (int cz = mz0; cz <= mz1; cz++) {
+					Cell cell = grid[((cx - mx0) * ny + (cy - my0)) * nz + (cz - mz0)];
+					if (cell != null) {
+						cell.trim();
+						this.cells.put(cellKey(level, cx, cy, cz), cell);
+						this.totalPoints += cell.size;
+						nLoaded++;
+						nPoints += cell.seen;
+						if (cell.seen > cell.size) {
+							nSampled++;
+						}
+					}
+				}
+			}
+		}
+		this.evict(level, cx0, cx1, cy0, cy1, cz0, cz1);
+		logger.debug("Loaded " + nLoaded + " cells of " + cellSize + " Ly with " + nPoints + " points in " + (System.currentTimeMillis() - start) + " ms, " + nSampled
+				+ " of them sampled down to " + MAX_POINTS_PER_CELL + " points, " + this.totalPoints + " points in memory");
+	}
+
+	/**
+	 * Drops the least recently used cells until at most {@link #MAX_POINTS} points are left, except for the cells of the
+	 * current query
+	 */
+	private void evict(int level, int cx0, int cx1, int cy0, int cy1, int cz0, int cz1) {
+		for (Iterator<Long> it = this.cells.keySet().iterator(); this.totalPoints > MAX_POINTS && it.hasNext();) {
+			long key = it.next();
+			if (!isWithin(key, level, cx0, cx1, cy0, cy1, cz0, cz1)) {
+				this.totalPoints -= this.cells.get(key).size;
+				it.remove();
+			}
+		}
+	}
+
+	private static void assign(Cell[] grid, float cellSize, int mx0, int my0, int mz0, int nx, int ny, int nz, Coord c, int starClass, Random random) {
+		if (c == null) {
+			return;
+		}
+		int ix = cellIndex(c.getX(), cellSize) - mx0;
+		int iy = cellIndex(c.getY(), cellSize) - my0;
+		int iz = cellIndex(c.getZ(), cellSize) - mz0;
+		if (ix >= 0 && ix < nx && iy >= 0 && iy < ny && iz >= 0 && iz < nz) {
+			Cell cell = grid[(ix * ny + iy) * nz + iz];
+			if (cell != null) {
+				cell.add(c.getX(), c.getY(), c.getZ(), starClass, random);
+			}
+		}
+	}
+
+	/**
+	 * @return
+	 *      The smallest level whose cells are large enough for an extent of at most {@link #MAX_CELLS_PER_AXIS} cells
+	 */
+	static int levelFor(float extent) {
+		int level = 0;
+		while (level < MAX_LEVEL && cellSize(level) * MAX_CELLS_PER_AXIS < extent) {
+			level++;
+		}
+		return level;
+	}
+
+	static float cellSize(int level) {
+		return BASE_CELL_SIZE * (1 << level);
+	}
+
+	private static int cellIndex(float value, float cellSize) {
+		return (int) Math.floor(value / cellSize);
+	}
+
+	private static long cellKey(int level, int cx, int cy, int cz) {
+		return ((long) level << 60) | ((cx & 0xFFFFFL) << 40) | ((cy & 0xFFFFFL) << 20) | (cz & 0xFFFFFL);
+	}
+
+	private static boolean isWithin(long key, int level, int cx0, int cx1, int cy0, int cy1, int cz0, int cz1) {
+		int cx = (int) (key << 4 >> 44); // Sign-extend the 20 bit indexes
+		int cy = (int) (key << 24 >> 44);
+		int cz = (int) (key << 44 >> 44);
+		return (int) (key >>> 60) == level && cx >= cx0 && cx <= cx1 && cy >= cy0 && cy <= cy1 && cz >= cz0 && cz <= cz1;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "StarFieldPointCache[" + this.cells.size() + " cells, " + this.totalPoints + " points]";
+	}
+
+	/**
+	 * Receives the points of a box one by one, without any object per point
+	 */
+	@FunctionalInterface
+	public interface PointConsumer {
+
+		/**
+		 * @param starClass
+		 *      {@link StarClass#ordinal()} of an entry star, or {@link StarFieldPointCache#NO_STAR_CLASS} for a system
+		 * @param weight
+		 *      The number of points this one stands for, 1 unless its cell has been sampled down
+		 */
+		void accept(float x, float y, float z, int starClass, float weight);
+
+	}
+
+	/**
+	 * Packed records: Coords interleaved as x, y, z and the star class ordinals in a parallel array. Grows by half its
+	 * capacity rather than doubling, so a large cell does not briefly need three times its final size while loading.
+	 * Once it holds {@link #MAX_POINTS_PER_CELL} points, further points replace random ones so the kept points are an
+	 * even sample of all points seen.
+	 */
+	private static class Cell {
+
+		private final long loaded;
+		private int size = 0;
+		private long seen = 0;
+		private float[] coords = new float[3 * 16];
+		private byte[] starClasses = new byte[16];
+
+		Cell(long loaded) {
+			this.loaded = loaded;
+		}
+
+		void add(float x, float y, float z, int starClass, Random random) {
+			this.seen++;
+			int idx = this.size;
+			if (this.size == MAX_POINTS_PER_CELL) {
+				long r = (long) (random.nextDouble() * this.seen);
+				if (r >= MAX_POINTS_PER_CELL) {
+					return;
+				}
+				idx = (int) r;
+			} else {
+				if (this.size == this.starClasses.length) {
+					int capacity = Math.min(MAX_POINTS_PER_CELL, this.size + (this.size >> 1));
+					this.coords = Arrays.copyOf(this.coords, 3 * capacity);
+					this.starClasses = Arrays.copyOf(this.starClasses, capacity);
+				}
+				this.size++;
+			}
+			this.coords[3 * idx] = x;
+			this.coords[3 * idx + 1] = y;
+			this.coords[3 * idx + 2] = z;
+			this.starClasses[idx] = (byte) starClass;
+		}
+
+		float getWeight() {
+			return this.size == 0 ? 1f : (float) this.seen / this.size;
+		}
+
+		void trim() {
+			if (this.size == this.starClasses.length) {
+				return;
+			}
+			this.coords = Arrays.copyOf(this.coords, 3 * this.size);
+			this.starClasses = Arrays.copyOf(this.starClasses, this.size);
+		}
+
+	}
+
+}
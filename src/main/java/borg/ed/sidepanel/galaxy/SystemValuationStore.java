@@ -0,0 +1,269 @@
+package borg.ed.sidepanel.galaxy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import borg.ed.galaxy.constants.PlanetClass;
+import borg.ed.galaxy.constants.StarClass;
+import borg.ed.galaxy.util.BodyUtil;
+
+/**
+ * On-disk store of the estimated exploration payout of star systems, and of which systems are populated (i.e. not
+ * worth exploring). Survives restarts, so the discovery panel does not have to pull all bodies of the same systems
+ * again on every launch.
+ *
+ * <p>The file is read on first access, not on construction. At most {@link #MAX_ENTRIES} systems are kept, the least
+ * recently used ones are dropped first. Payouts expire after {@link #MAX_PAYOUT_AGE_MILLIS}, so systems which have been
+ * scanned by others while nobody nearby reported it are valued again eventually. Populated flags never expire. The file
+ * stores the model fingerprint the payouts have been computed with, a file with a different fingerprint (e.g. after
+ * {@link BodyUtil#estimatePayout(StarClass, PlanetClass, boolean)} has changed) is discarded.</p>
+ *
+ * @author <a href="mailto:b.guenther@xsite.de">Boris Guenther</a>
+ */
+public class SystemValuationStore {
+
+	static final Logger logger = LoggerFactory.getLogger(SystemValuationStore.class);
+
+	private static final int MAGIC = 0x45445356; // "EDSV"
+
+	/**
+	 * Increase whenever the layout written by {@link #save()} changes
+	 */
+	private static final int VERSION = 2;
+
+	public static final int MAX_ENTRIES = 100_000;
+
+	/**
+	 * Nearby scans invalidate a payout right away, this only catches scans which have been missed
+	 */
+	public static final long MAX_PAYOUT_AGE_MILLIS = 30 * 24 * 60 * 60 * 1000L;
+
+	public static final long SAVE_INTERVAL_MILLIS = 5 * 60 * 1000L;
+
+	/**
+	 * Stored instead of a payout for populated systems
+	 */
+	private static final long POPULATED = -1L;
+
+	private final File file;
+
+	private final long modelFingerprint;
+
+	/**
+	 * Map&lt;systemName, valuation&gt; in access order
+	 */
+	private final LinkedHashMap<String, Valuation> valuations = new LinkedHashMap<String, Valuation>(1024, 0.75f, /* accessOrder = */ true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Valuation> eldest) {
+			return this.size() > MAX_ENTRIES;
+		}
+	};
+
+	private boolean loaded = false;
+
+	private boolean dirty = false;
+
+	private long lastSaved = System.currentTimeMillis();
+
+	/**
+	 * @param modelFingerprint
+	 *      Identifies how the payouts have been computed, see {@link #payoutModelFingerprint()}
+	 */
+	public SystemValuationStore(File file, long modelFingerprint) {
+		this.file = file;
+		this.modelFingerprint = modelFingerprint;
+	}
+
+	/**
+	 * @return
+	 *      A hash over the estimated payout of every star class and planet class, so any change to the model results in
+	 *      a different value
+	 */
+	public static long payoutModelFingerprint() {
+		long fingerprint = 17L;
+		for (StarClass starClass : StarClass.values()) {
+			fingerprint = 31L * fingerprint + starClass.name().hashCode();
+			fingerprint = 31L * fingerprint + BodyUtil.estimatePayout(starClass, null, false);
+		}
+		for (PlanetClass planetClass : PlanetClass.values()) {
+			fingerprint = 31L * fingerprint + planetClass.name().hashCode();
+			fingerprint = 31L * fingerprint + BodyUtil.estimatePayout(null, planetClass, false);
+			fingerprint = 31L * fingerprint + BodyUtil.estimatePayout(null, planetClass, true);
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * @return
+	 *      <code>null</code> if the system has not been valued yet or is populated
+	 */
+	public synchronized Long getPayout(String starSystemName) {
+		Valuation valuation = this.get(starSystemName);
+		return valuation == null || valuation.value == POPULATED ? null : valuation.value;
+	}
+
+	public synchronized boolean isPopulated(String starSystemName) {
+		Valuation valuation = this.get(starSystemName);
+		return valuation != null && valuation.value == POPULATED;
+	}
+
+	public synchronized void putPayout(String starSystemName, long payout) {
+		this.load().put(starSystemName, new Valuation(payout, System.currentTimeMillis()));
+		this.dirty = true;
+	}
+
+	public synchronized void putPopulated(String starSystemName) {
+		this.load().put(starSystemName, new Valuation(POPULATED, System.currentTimeMillis()));
+		this.dirty = true;
+	}
+
+	/**
+	 * Forgets everything known about the given system, e.g. because new scan data has arrived for it
+	 */
+	public synchronized void remove(String starSystemName) {
+		if (this.load().remove(starSystemName) != null) {
+			this.dirty = true;
+		}
+	}
+
+	public synchronized int size() {
+		return this.load().size();
+	}
+
+	/**
+	 * @return
+	 *      <code>null</code> if the system has not been valued yet, or its valuation has expired and is dropped now
+	 */
+	private Valuation get(String starSystemName) {
+		Valuation valuation = this.load().get(starSystemName);
+		if (valuation != null && valuation.isExpired(System.currentTimeMillis())) {
+			this.valuations.remove(starSystemName);
+			this.dirty = true;
+			return null;
+		}
+		return valuation;
+	}
+
+	/**
+	 * Saves unless the last save has been less than {@link #SAVE_INTERVAL_MILLIS} ago, so a crash does not lose a whole
+	 * session of valuations
+	 */
+	public synchronized void saveIfDue() {
+		if (System.currentTimeMillis() - this.lastSaved >= SAVE_INTERVAL_MILLIS) {
+			this.save();
+		}
+	}
+
+	/**
+	 * Writes to a temp file first and then replaces the target, so a crash while writing never leaves a half-written
+	 * file behind. Does nothing if nothing has changed since the last save.
+	 */
+	public synchronized void save() {
+		if (!this.dirty) {
+			return;
+		}
+
+		File tmpFile = new File(this.file.getParentFile(), this.file.getName() + ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(this.modelFingerprint);
+				out.writeInt(this.valuations.size());
+				for (Map.Entry<String, Valuation> entry : this.valuations.entrySet()) { // Least recently used first
+					out.writeUTF(entry.getKey());
+					out.writeLong(entry.getValue().value);
+					out.writeLong(entry.getValue().stored);
+				}
+			}
+			Files.move(tmpFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			this.dirty = false;
+			this.lastSaved = System.currentTimeMillis();
+			logger.debug("Saved " + this.valuations.size() + " system valuations to " + this.file);
+		} catch (IOException e) {
+			logger.error("Failed to save " + this.file, e);
+		}
+	}
+
+	private Map<String, Valuation> load() {
+		if (!this.loaded) {
+			this.loaded = true;
+
+			if (this.file.exists()) {
+				try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)))) {
+					if (in.readInt() != MAGIC) {
+						throw new IOException(this.file + " is not a system valuation file");
+					}
+					int version = in.readInt();
+					long modelFingerprint = in.readLong();
+					if (version != VERSION || modelFingerprint != this.modelFingerprint) {
+						logger.info(this.file + " has been written by a different version or payout model, discarding it");
+						this.dirty = true;
+					} else {
+						final long now = System.currentTimeMillis();
+						int n = in.readInt();
+						for (int i = 0; i < n; i++) {
+							String starSystemName = in.readUTF();
+							Valuation valuation = new Valuation(in.readLong(), in.readLong());
+							if (!valuation.isExpired(now)) {
+								this.valuations.put(starSystemName, valuation);
+							} else {
+								this.dirty = true;
+							}
+						}
+						logger.info("Loaded " + this.valuations.size() + " of " + n + " system valuations from " + this.file);
+					}
+				} catch (IOException e) {
+					logger.warn("Failed to load " + this.file + ", starting empty", e);
+					this.valuations.clear();
+					this.dirty = true;
+				}
+			}
+		}
+		return this.valuations;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "SystemValuationStore[" + this.file + ", " + (this.loaded ? this.valuations.size() + " entries" : "not loaded") + "]";
+	}
+
+	private static class Valuation {
+
+		/**
+		 * Payout or {@link SystemValuationStore#POPULATED}
+		 */
+		private final long value;
+
+		/**
+		 * Millis when the valuation has been stored
+		 */
+		private final long stored;
+
+		Valuation(long value, long stored) {
+			this.value = value;
+			this.stored = stored;
+		}
+
+		boolean isExpired(long now) {
+			return this.value != POPULATED && now - this.stored > MAX_PAYOUT_AGE_MILLIS;
+		}
+
+	}
+
+}
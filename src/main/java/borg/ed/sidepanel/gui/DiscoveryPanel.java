@@ -6,23 +6,30 @@ import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.Point;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
 import java.io.Serializable;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import javax.swing.Box;
@@ -35,9 +42,6 @@ import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationContext;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.util.CloseableIterator;
 
 import borg.ed.galaxy.constants.Element;
 import borg.ed.galaxy.constants.PlanetClass;
@@ -45,16 +49,22 @@ import borg.ed.galaxy.constants.StarClass;
 import borg.ed.galaxy.constants.TerraformingState;
 import borg.ed.galaxy.data.Coord;
 import borg.ed.galaxy.exceptions.NonUniqueResultException;
+import borg.ed.galaxy.journal.events.ScanEvent;
 import borg.ed.galaxy.model.Body;
 import borg.ed.galaxy.model.Body.MaterialShare;
 import borg.ed.galaxy.model.StarSystem;
 import borg.ed.galaxy.service.GalaxyService;
 import borg.ed.galaxy.util.BodyUtil;
-import borg.ed.galaxy.util.MiscUtil;
-import borg.ed.galaxy.util.StarUtil;
 import borg.ed.sidepanel.commander.CommanderData;
 import borg.ed.sidepanel.commander.OtherCommanderLocation;
-import borg.ed.sidepanel.commander.VisitedStarSystem;
+import borg.ed.sidepanel.commander.TravelHistory;
+import borg.ed.sidepanel.galaxy.CachingGalaxyService;
+import borg.ed.sidepanel.galaxy.LocalSpatialIndex;
+import borg.ed.sidepanel.galaxy.MaterialCategory;
+import borg.ed.sidepanel.galaxy.MaterialQueryPlanner;
+import borg.ed.sidepanel.galaxy.MaterialTotals;
+import borg.ed.sidepanel.galaxy.StarFieldPointCache;
+import borg.ed.sidepanel.galaxy.SystemValuationStore;
 
 /**
  * DiscoveryPanel
@@ -69,9 +79,73 @@ public class DiscoveryPanel extends JPanel {
 
 	private final CommanderData commanderData;
 
-	private GalaxyService galaxyService = null;
-	private Set<String> populatedSystems = new HashSet<>();
-	private Map<String, Long> knownPayouts = new HashMap<>();
+	private CachingGalaxyService galaxyService = null;
+
+	/**
+	 * Only bodies up to this distance from the arrival point count towards the payout of a system
+	 */
+	private static final long MAX_DISTANCE_FROM_ARRIVAL = 10_000L; // Ls
+
+	private final SystemValuationStore systemValuationStore;
+
+	/**
+	 * Local indexes around the commander, one per discovery search
+	 */
+	private final LocalSpatialIndex neutronStarIndex;
+	private final LocalSpatialIndex elwWwAwIndex;
+	private final LocalSpatialIndex terraformingCandidateIndex;
+
+	/**
+	 * The material searches, answered together by {@link #materialQueryPlanner}
+	 */
+	private final MaterialCategory polPlusFive = new MaterialCategory("Pol+5", 1000f, 10, Arrays.asList(materialShare(Element.POLONIUM, null), materialShare(Element.NIOBIUM, null),
+			materialShare(Element.ARSENIC, null), materialShare(Element.CADMIUM, null), materialShare(Element.GERMANIUM, null), materialShare(Element.VANADIUM, null)));
+	private final MaterialCategory yttPlusFive = new MaterialCategory("Ytt+5", 1000f, 10, Arrays.asList(materialShare(Element.YTTRIUM, null), materialShare(Element.NIOBIUM, null),
+			materialShare(Element.ARSENIC, null), materialShare(Element.CADMIUM, null), materialShare(Element.GERMANIUM, null), materialShare(Element.VANADIUM, null)));
+	private final MaterialCategory polRich = new MaterialCategory("Polonium rich", 250f, 10,
+			Arrays.asList(materialShare(Element.POLONIUM, "0.5"), materialShare(Element.NIOBIUM, "1.5"), materialShare(Element.ARSENIC, "2.0")));
+	private final MaterialCategory yttRich = new MaterialCategory("Yttrium rich", 250f, 10,
+			Arrays.asList(materialShare(Element.YTTRIUM, "1.0"), materialShare(Element.NIOBIUM, "1.5"), materialShare(Element.ARSENIC, "2.0")));
+	private final MaterialCategory polonium = new MaterialCategory("Polonium", 250f, 0, Arrays.asList(materialShare(Element.POLONIUM, null)));
+	private final MaterialCategory yttrium = new MaterialCategory("Yttrium", 250f, 0, Arrays.asList(materialShare(Element.YTTRIUM, null)));
+	private final MaterialQueryPlanner materialQueryPlanner;
+
+	private static final MaterialTotals.Threshold JUMPONIUM_RICH_SYSTEM = MaterialTotals.threshold().atLeast(Element.POLONIUM, 1.5f).atLeast(Element.YTTRIUM, 2f)
+			.present(Element.CADMIUM).present(Element.NIOBIUM).present(Element.ARSENIC).present(Element.GERMANIUM).present(Element.VANADIUM).build();
+
+	private final DiscoveryRefreshEngine refreshEngine = new DiscoveryRefreshEngine();
+
+	/**
+	 * Sections which have to be recomputed by the next refresh, guarded by itself
+	 */
+	private final Set<Section> staleSections = EnumSet.allOf(Section.class);
+	private boolean staleMap = true;
+
+	/**
+	 * Results of the previous refreshes, only accessed by the refresh thread
+	 */
+	private Coord lastRefreshCoord = null;
+	private String lastRefreshStarSystemName = null;
+	private String knownBodiesText = "";
+	private String valuableBodiesText = "";
+	private String neutronStarsText = "";
+	private String valuableSystemsText = "";
+	private String jumponiumBodiesText = "";
+
+	/**
+	 * Runs the independent queries of a refresh concurrently, bounded to the number of queries per refresh: Known
+	 * bodies, neutron stars, valuable systems and one per index of the {@link #materialQueryPlanner}
+	 */
+	private final ExecutorService queryExecutor = Executors.newFixedThreadPool(8, new ThreadFactory() {
+		private final AtomicInteger threadNo = new AtomicInteger(0);
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "DiscoveryQuery-" + this.threadNo.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
 
 	private JTextArea txtClosestNeutronStars = new JTextArea(5, 40);
 	private JTextArea txtClosestValuableSystems = new JTextArea(10, 40);
@@ -80,10 +154,18 @@ public class DiscoveryPanel extends JPanel {
 	private JTextArea txtValuableBodies = new JTextArea(3, 40);
 	private Area area = null;
 
-	public DiscoveryPanel(ApplicationContext appctx, CommanderData commanderData, Map<String, OtherCommanderLocation> otherCommanders) {
+	public DiscoveryPanel(ApplicationContext appctx, CommanderData commanderData, Map<String, OtherCommanderLocation> otherCommanders, SystemValuationStore systemValuationStore) {
 		this.commanderData = commanderData;
+		this.systemValuationStore = systemValuationStore;
+
+		this.galaxyService = new CachingGalaxyService(appctx.getBean(GalaxyService.class));
 
-		this.galaxyService = appctx.getBean(GalaxyService.class);
+		this.neutronStarIndex = this.galaxyService.newStarIndex("Neutron stars", 250f, /* isMainStar = */ Boolean.TRUE, Arrays.asList(StarClass.N));
+		this.elwWwAwIndex = this.galaxyService.newPlanetIndex("ELW/WW/AW", 500f, /* isTerraformingCandidate = */ null,
+				Arrays.asList(PlanetClass.EARTHLIKE_BODY, PlanetClass.WATER_WORLD, PlanetClass.AMMONIA_WORLD));
+		this.terraformingCandidateIndex = this.galaxyService.newPlanetIndex("Terraforming candidates", 500f, /* isTerraformingCandidate = */ Boolean.TRUE, null);
+		this.materialQueryPlanner = new MaterialQueryPlanner(this.galaxyService,
+				Arrays.asList(this.polPlusFive, this.yttPlusFive, this.polRich, this.yttRich, this.polonium, this.yttrium));
 
 		this.setLayout(new BorderLayout());
 
@@ -121,70 +203,252 @@ public class DiscoveryPanel extends JPanel {
 		this.add(this.area, BorderLayout.CENTER);
 	}
 
+	/**
+	 * Starts a refresh for the current position of the commander in the background and returns immediately. The text
+	 * areas are updated on the EDT once all queries have finished, unless the commander has jumped on in the meantime.
+	 */
 	public void updateFromElasticsearch(boolean repaintMap) {
+		this.markStale(EnumSet.allOf(Section.class), repaintMap);
+		this.submitRefresh();
+	}
+
+	/**
+	 * Applies scans reported to EDDN: Drops everything cached about the scanned systems and the index cells they lie in,
+	 * then recomputes only those sections which can contain them. Everything else is kept as it is.
+	 */
+	public void updateFromScans(Collection<ScanEvent> scanEvents) {
 		final Coord coord = this.commanderData.getCurrentCoord();
 		if (coord == null) {
 			return;
 		}
+		final String currentStarSystemName = this.commanderData.getCurrentStarSystem();
+		final float valuableSystemsRange = Math.min(500f, this.getVisibleDistance());
 
-		logger.trace("Searching for known bodies in " + this.commanderData.getCurrentStarSystem());
-		List<Body> knownBodies = this.galaxyService.findBodiesByStarSystemName(this.commanderData.getCurrentStarSystem());
-		this.txtKnownBodies.setText(knownBodies.stream() //
-				.filter(b -> !b.getName().toLowerCase().contains("belt")) //
-				.sorted((b1, b2) -> b1.getName().toLowerCase().compareTo(b2.getName().toLowerCase())) //
-				.map(b -> b.getName().replace(b.getStarSystemName(), "").trim()) //
-				.map(name -> StringUtils.isEmpty(name) ? "MAIN" : name) //
-				.collect(Collectors.joining(", ")));
-
-		logger.trace("Searching for valuable bodies in " + this.commanderData.getCurrentStarSystem());
-		this.txtValuableBodies.setText(knownBodies.stream() //
-				.filter(b -> BodyUtil.estimatePayout(b) >= 50_000) //
-				.filter(b -> !this.commanderData.scannedBody(b.getName())) //
-				.sorted((b1, b2) -> -1 * new Long(BodyUtil.estimatePayout(b1)).compareTo(BodyUtil.estimatePayout(b2))) //
-				.map(b -> String.format(Locale.US, "%s: %,d CR", b.getName().replace(b.getStarSystemName(), "").trim(), BodyUtil.estimatePayout(b))) //
-				.collect(Collectors.joining(", ")));
-
-		StringBuilder neutronStarsText = new StringBuilder();
-		List<Body> neutronStars = this.findNearbyNeutronStars(coord, /* range = */ 250f);
-		for (int i = 0; i < Math.min(5, neutronStars.size()); i++) {
-			Body body = neutronStars.get(i);
-			neutronStarsText.append(String.format(Locale.US, "%.0f Ly -- %s\n", body.getCoord().distanceTo(coord), body.getName()));
-		}
-		this.txtClosestNeutronStars.setText(neutronStarsText.toString().trim());
-
-		StringBuilder valuableSystemsText = new StringBuilder();
-		LinkedHashMap<String, Long> valuableSystems = this.findNearbyValuableSystems(coord, /* range = */ Math.min(500f, this.getVisibleDistance()), this.commanderData);
-		int counter = 0;
-		for (String systemName : valuableSystems.keySet()) {
-			float distance = 0f;
+		Set<Section> sections = EnumSet.noneOf(Section.class);
+		for (ScanEvent scanEvent : scanEvents) {
 			try {
-				StarSystem starSystem = this.galaxyService.findStarSystemByName(systemName);
-				distance = starSystem == null || starSystem.getCoord() == null ? 0f : starSystem.getCoord().distanceTo(coord);
-			} catch (NonUniqueResultException e) {
-				// Ignore
+				this.applyScan(scanEvent, coord, currentStarSystemName, valuableSystemsRange, sections);
+			} catch (Exception e) {
+				logger.warn("Failed to apply EDDN scan of " + scanEvent.getBodyName(), e);
 			}
-			if (counter++ < 10) {
-				long payout = valuableSystems.get(systemName);
-				valuableSystemsText.append(String.format(Locale.US, "%.0f Ly -- %s -- %,d CR\n", distance, systemName, payout));
+		}
+
+		if (!sections.isEmpty()) {
+			logger.debug(scanEvents.size() + " EDDN scans nearby, refreshing " + sections);
+			this.markStale(sections, /* repaintMap = */ false);
+			this.submitRefresh();
+		}
+	}
+
+	/**
+	 * Drops everything cached about the system of the given scan and adds the sections which can contain it
+	 */
+	private void applyScan(ScanEvent scanEvent, Coord coord, String currentStarSystemName, float valuableSystemsRange, Set<Section> sections) {
+		String starSystemName = scanEvent.getStarSystem();
+		Coord starPos = scanEvent.getStarPos();
+		if (StringUtils.isEmpty(starSystemName) || starPos == null) {
+			return;
+		}
+
+		this.galaxyService.invalidateStarSystem(starSystemName);
+		this.systemValuationStore.remove(starSystemName);
+
+		float distance = starPos.distanceTo(coord);
+		if (starSystemName.equals(currentStarSystemName)) {
+			sections.add(Section.KNOWN_BODIES);
+		}
+		if (distance <= valuableSystemsRange) {
+			sections.add(Section.VALUABLE_SYSTEMS); // Stars count towards the system payout as well
+		}
+		if (StringUtils.isNotEmpty(scanEvent.getPlanetClass())) {
+			this.elwWwAwIndex.invalidate(starPos);
+			this.terraformingCandidateIndex.invalidate(starPos);
+			this.materialQueryPlanner.invalidate(starPos);
+			if (distance <= this.materialQueryPlanner.getMaxRange()) {
+				sections.add(Section.JUMPONIUM);
+			}
+		} else if (StarClass.N.equals(StarClass.fromJournalValue(scanEvent.getStarType()))) {
+			this.neutronStarIndex.invalidate(starPos);
+			if (distance <= this.neutronStarIndex.getRadius()) {
+				sections.add(Section.NEUTRON_STARS);
 			}
 		}
-		this.txtClosestValuableSystems.setText(valuableSystemsText.toString().trim());
+	}
 
+	public void shutdown() {
+		this.refreshEngine.shutdown();
+		this.queryExecutor.shutdownNow();
+		this.area.shutdown();
+	}
+
+	/**
+	 * Payouts stored with a different fingerprint have been computed differently and are discarded
+	 */
+	public static long valuationModelFingerprint() {
+		return 31L * SystemValuationStore.payoutModelFingerprint() + MAX_DISTANCE_FROM_ARRIVAL;
+	}
+
+	private void markStale(Set<Section> sections, boolean repaintMap) {
+		synchronized (this.staleSections) {
+			this.staleSections.addAll(sections);
+			this.staleMap |= repaintMap;
+		}
+	}
+
+	/**
+	 * All stale sections are picked up by the next refresh which starts, so refreshes for the same coord can be
+	 * coalesced by the engine without losing anything
+	 */
+	private void submitRefresh() {
+		final Coord coord = this.commanderData.getCurrentCoord();
+		if (coord == null) {
+			return;
+		}
+		final String starSystemName = this.commanderData.getCurrentStarSystem();
+
+		this.refreshEngine.submit(coord, (c, ticket) -> this.refresh(c, starSystemName, ticket));
+	}
+
+	/**
+	 * Recomputes the stale sections, or all of them if the commander has moved since the last refresh.
+	 *
+	 * <p>The discovery queries (and the known bodies of the current system) do not depend on each other, so they run
+	 * concurrently on {@link #queryExecutor}. The refresh then takes about as long as the slowest query. All material
+	 * searches are answered by a single pass of {@link #materialQueryPlanner} over its indexes, which are queried
+	 * concurrently as well. Only the jumponium rich systems have to wait for it.</p>
+	 */
+	private void refresh(final Coord coord, final String starSystemName, DiscoveryRefreshEngine.Ticket ticket) throws InterruptedException, ExecutionException {
+		final Set<Section> sections;
+		final boolean repaintMap;
+		synchronized (this.staleSections) {
+			if (!DiscoveryRefreshEngine.sameCoord(coord, this.lastRefreshCoord) || !Objects.equals(starSystemName, this.lastRefreshStarSystemName)) {
+				this.staleSections.addAll(EnumSet.allOf(Section.class));
+			}
+			sections = EnumSet.copyOf(this.staleSections);
+			repaintMap = this.staleMap;
+			this.staleSections.clear();
+			this.staleMap = false;
+		}
+
+		boolean completed = false;
+		try {
+			this.refresh(coord, starSystemName, sections, repaintMap, ticket);
+			this.lastRefreshCoord = coord;
+			this.lastRefreshStarSystemName = starSystemName;
+			completed = true;
+		} finally {
+			if (!completed) {
+				this.markStale(sections, repaintMap); // Retry with the next refresh
+			}
+		}
+	}
+
+	private void refresh(final Coord coord, final String starSystemName, final Set<Section> sections, final boolean repaintMap, DiscoveryRefreshEngine.Ticket ticket)
+			throws InterruptedException, ExecutionException {
+		final float valuableSystemsRange = Math.min(500f, this.getVisibleDistance());
+
+		CompletableFuture<List<Body>> knownBodiesFuture = !sections.contains(Section.KNOWN_BODIES) ? CompletableFuture.completedFuture(null)
+				: CompletableFuture.supplyAsync(() -> this.galaxyService.findBodiesByStarSystemName(starSystemName), this.queryExecutor);
+		CompletableFuture<List<Body>> neutronStarsFuture = !sections.contains(Section.NEUTRON_STARS) ? CompletableFuture.completedFuture(null)
+				: CompletableFuture.supplyAsync(() -> this.findNearbyNeutronStars(coord, /* range = */ 250f, /* limit = */ 5), this.queryExecutor);
+		CompletableFuture<List<ValuableSystem>> valuableSystemsFuture = !sections.contains(Section.VALUABLE_SYSTEMS) ? CompletableFuture.completedFuture(null)
+				: CompletableFuture.supplyAsync(() -> this.findNearbyValuableSystems(coord, valuableSystemsRange, this.commanderData), this.queryExecutor);
+		CompletableFuture<Map<MaterialCategory, List<Body>>> materialsFuture = !sections.contains(Section.JUMPONIUM) ? CompletableFuture.completedFuture(null)
+				: this.findNearbyMaterials(coord);
+		CompletableFuture<List<StarSystem>> jumponiumRichSystemsFuture = !sections.contains(Section.JUMPONIUM) ? CompletableFuture.completedFuture(null)
+				: materialsFuture.thenApplyAsync(materials -> this.findNearbyJumponiumRichSystems(coord, materials.getOrDefault(this.polonium, Collections.emptyList()),
+						materials.getOrDefault(this.yttrium, Collections.emptyList())), this.queryExecutor);
+		CompletableFuture<?> all = CompletableFuture.allOf(knownBodiesFuture, neutronStarsFuture, valuableSystemsFuture, materialsFuture, jumponiumRichSystemsFuture);
+		try {
+			all.get();
+		} finally {
+			if (!all.isDone()) {
+				// Cancelled refresh, do not start queries which are still waiting for a thread
+				Arrays.asList(knownBodiesFuture, neutronStarsFuture, valuableSystemsFuture, materialsFuture, jumponiumRichSystemsFuture).forEach(f -> f.cancel(false));
+			}
+		}
+		ticket.checkCurrent();
+
+		if (sections.contains(Section.KNOWN_BODIES)) {
+			List<Body> knownBodies = knownBodiesFuture.get();
+			this.knownBodiesText = knownBodies.stream() //
+					.filter(b -> !b.getName().toLowerCase().contains("belt")) //
+					.sorted((b1, b2) -> b1.getName().toLowerCase().compareTo(b2.getName().toLowerCase())) //
+					.map(b -> b.getName().replace(b.getStarSystemName(), "").trim()) //
+					.map(name -> StringUtils.isEmpty(name) ? "MAIN" : name) //
+					.collect(Collectors.joining(", "));
+
+			Set<String> scannedBodyNames = this.commanderData.filterScannedBodies(knownBodies.stream().map(Body::getName).collect(Collectors.toList()));
+			this.valuableBodiesText = knownBodies.stream() //
+					.filter(b -> BodyUtil.estimatePayout(b) >= 50_000) //
+					.filter(b -> !scannedBodyNames.contains(b.getName())) //
+					.sorted((b1, b2) -> -1 * new Long(BodyUtil.estimatePayout(b1)).compareTo(BodyUtil.estimatePayout(b2))) //
+					.map(b -> String.format(Locale.US, "%s: %,d CR", b.getName().replace(b.getStarSystemName(), "").trim(), BodyUtil.estimatePayout(b))) //
+					.collect(Collectors.joining(", "));
+		}
+
+		if (sections.contains(Section.NEUTRON_STARS)) {
+			StringBuilder neutronStarsText = new StringBuilder();
+			List<Body> neutronStars = neutronStarsFuture.get();
+			for (int i = 0; i < Math.min(5, neutronStars.size()); i++) {
+				Body body = neutronStars.get(i);
+				neutronStarsText.append(String.format(Locale.US, "%.0f Ly -- %s\n", body.getCoord().distanceTo(coord), body.getName()));
+			}
+			this.neutronStarsText = neutronStarsText.toString().trim();
+		}
+
+		if (sections.contains(Section.VALUABLE_SYSTEMS)) {
+			StringBuilder valuableSystemsText = new StringBuilder();
+			List<ValuableSystem> valuableSystems = valuableSystemsFuture.get();
+			for (int i = 0; i < Math.min(10, valuableSystems.size()); i++) {
+				ValuableSystem valuableSystem = valuableSystems.get(i);
+				valuableSystemsText.append(String.format(Locale.US, "%.0f Ly -- %s -- %,d CR\n", valuableSystem.getCoord().distanceTo(coord), valuableSystem.getName(), valuableSystem.getPayout()));
+			}
+			this.valuableSystemsText = valuableSystemsText.toString().trim();
+		}
+		ticket.checkCurrent();
+
+		if (sections.contains(Section.JUMPONIUM)) {
+			this.jumponiumBodiesText = this.buildJumponiumBodiesText(coord, materialsFuture.get(), jumponiumRichSystemsFuture.get());
+		}
+
+		logger.debug(String.valueOf(this.galaxyService));
+		this.systemValuationStore.saveIfDue();
+
+		final String knownBodiesText = this.knownBodiesText;
+		final String valuableBodiesText = this.valuableBodiesText;
+		final String neutronStarsText = this.neutronStarsText;
+		final String valuableSystemsText = this.valuableSystemsText;
+		final String jumponiumBodiesText = this.jumponiumBodiesText;
+		ticket.publish(() -> {
+			this.txtKnownBodies.setText(knownBodiesText);
+			this.txtValuableBodies.setText(valuableBodiesText);
+			this.txtClosestNeutronStars.setText(neutronStarsText);
+			this.txtClosestValuableSystems.setText(valuableSystemsText);
+			this.txtClosestJumponiumBodies.setText(jumponiumBodiesText);
+
+			if (repaintMap) {
+				this.area.updateFromElasticsearch();
+			}
+		});
+	}
+
+	private String buildJumponiumBodiesText(final Coord coord, Map<MaterialCategory, List<Body>> materials, List<StarSystem> jumponiumRichSystems) {
 		StringBuilder jumponiumBodiesText = new StringBuilder();
 		int nJumponium = 0;
-		List<Body> polPlusFiveBodies = this.findNearbyJumponiumPlusFiveBodies(coord, /* range = */ 1000f, Element.POLONIUM);
+		List<Body> polPlusFiveBodies = materials.getOrDefault(this.polPlusFive, Collections.emptyList());
 		for (int i = 0; i < Math.min(10 - nJumponium, polPlusFiveBodies.size()); i++) {
 			Body body = polPlusFiveBodies.get(i);
 			jumponiumBodiesText.append(String.format(Locale.US, "%.0f Ly -- %s -- Pol+5\n", body.getCoord().distanceTo(coord), body.getName()));
 		}
 		nJumponium += polPlusFiveBodies.size();
-		List<Body> yttPlusFiveBodies = this.findNearbyJumponiumPlusFiveBodies(coord, /* range = */ 1000f, Element.YTTRIUM);
+		List<Body> yttPlusFiveBodies = materials.getOrDefault(this.yttPlusFive, Collections.emptyList());
 		for (int i = 0; i < Math.min(10 - nJumponium, yttPlusFiveBodies.size()); i++) {
 			Body body = yttPlusFiveBodies.get(i);
 			jumponiumBodiesText.append(String.format(Locale.US, "%.0f Ly -- %s -- Ytt+5\n", body.getCoord().distanceTo(coord), body.getName()));
 		}
 		nJumponium += yttPlusFiveBodies.size();
-		List<Body> jumponiumRichBodies = this.findNearbyJumponiumRichBodies(coord, /* range = */ 250f);
+		List<Body> jumponiumRichBodies = nearestJumponiumRichBodies(coord, materials, /* limit = */ 10);
 		for (int i = 0; i < Math.min(10 - nJumponium, jumponiumRichBodies.size()); i++) {
 			Body body = jumponiumRichBodies.get(i);
 			String mats = body.getMaterialShares().stream() //
@@ -196,48 +460,30 @@ public class DiscoveryPanel extends JPanel {
 			jumponiumBodiesText.append(String.format(Locale.US, "%.0f Ly -- %s -- %s\n", body.getCoord().distanceTo(coord), body.getName(), mats));
 		}
 		nJumponium += jumponiumRichBodies.size();
-		List<StarSystem> jumponiumRichSystems = this.findNearbyJumponiumRichSystems(coord, /* range = */ 250f);
 		for (int i = 0; i < Math.min(10 - nJumponium, jumponiumRichSystems.size()); i++) {
 			StarSystem starSystem = jumponiumRichSystems.get(i);
 
-			Map<Element, BigDecimal> totalMaterials = this.sumMaterialsOfSystem(starSystem.getName());
-			BigDecimal polonium = totalMaterials.getOrDefault(Element.POLONIUM, BigDecimal.ZERO);
-			BigDecimal yttrium = totalMaterials.getOrDefault(Element.YTTRIUM, BigDecimal.ZERO);
-			BigDecimal niobium = totalMaterials.getOrDefault(Element.NIOBIUM, BigDecimal.ZERO);
-			String mats = String.format(Locale.US, "%.1f%% Po, %.1f%% Y, %.1f%% Nb, +4", polonium, yttrium, niobium);
+			MaterialTotals totalMaterials = this.galaxyService.getMaterialTotals(starSystem.getName());
+			String mats = String.format(Locale.US, "%.1f%% Po, %.1f%% Y, %.1f%% Nb, +4", totalMaterials.get(Element.POLONIUM), totalMaterials.get(Element.YTTRIUM),
+					totalMaterials.get(Element.NIOBIUM));
 			jumponiumBodiesText.append(String.format(Locale.US, "%.0f Ly -- %s -- %s\n", starSystem.getCoord().distanceTo(coord), starSystem.getName(), mats));
 		}
 		nJumponium += jumponiumRichSystems.size();
-		this.txtClosestJumponiumBodies.setText(jumponiumBodiesText.toString().trim());
 
-		if (repaintMap) {
-			this.area.updateFromElasticsearch();
-		}
+		return jumponiumBodiesText.toString().trim();
 	}
 
-	private List<Body> findNearbyNeutronStars(final Coord coord, final float range) {
+	/**
+	 * @return
+	 *      The <code>limit</code> nearest neutron stars, nearest first
+	 */
+	private List<Body> findNearbyNeutronStars(final Coord coord, final float range, final int limit) {
 		List<Body> result = new ArrayList<>();
 
 		try {
 			logger.trace("Searching for neutron stars " + range + " Ly around " + coord);
 
-			try (CloseableIterator<Body> stream = this.galaxyService.streamStarsNear(coord, range, /* isMainStar = */ Boolean.TRUE, Arrays.asList(StarClass.N))) {
-				stream.forEachRemaining(body -> {
-					if (body.getStarClass() != null) {
-						result.add(body);
-					}
-				});
-			}
-
-			// Sort by distance
-			if (!result.isEmpty()) {
-				Collections.sort(result, new Comparator<Body>() {
-					@Override
-					public int compare(Body b1, Body b2) {
-						return new Float(b1.getCoord().distanceTo(coord)).compareTo(new Float(b2.getCoord().distanceTo(coord)));
-					}
-				});
-			}
+			result.addAll(this.neutronStarIndex.findNearest(coord, range, limit, body -> body.getStarClass() != null));
 		} catch (Exception e) {
 			logger.error("Failed to find nearby neutron stars", e);
 		}
@@ -245,244 +491,138 @@ public class DiscoveryPanel extends JPanel {
 		return result;
 	}
 
-	private List<Body> findNearbyJumponiumPlusFiveBodies(final Coord coord, final float range, final Element grade5Element) {
-		List<Body> result = new ArrayList<>();
-
-		try {
-			logger.trace("Searching for jumponium+5 " + range + " Ly around " + coord);
-
-			MaterialShare g5 = new MaterialShare();
-			g5.setName(grade5Element);
-			MaterialShare nio = new MaterialShare();
-			nio.setName(Element.NIOBIUM);
-			MaterialShare ars = new MaterialShare();
-			ars.setName(Element.ARSENIC);
-			MaterialShare cad = new MaterialShare();
-			cad.setName(Element.CADMIUM);
-			MaterialShare ger = new MaterialShare();
-			ger.setName(Element.GERMANIUM);
-			MaterialShare van = new MaterialShare();
-			van.setName(Element.VANADIUM);
-
-			Page<Body> page = this.galaxyService.findPlanetsHavingElementsNear(coord, range, Arrays.asList(g5, nio, ars, cad, ger, van), PageRequest.of(0, 10000));
-			while (page != null) {
-				for (Body body : page.getContent()) {
-					result.add(body);
-				}
-				if (page.hasNext() && page.getNumber() + 1 < 10000 / page.getSize()) {
-					page = this.galaxyService.findPlanetsHavingElementsNear(coord, range, Arrays.asList(g5, nio, ars, cad, ger, van), page.nextPageable());
-				} else {
-					page = null;
-				}
-			}
-
-			// Sort by distance
-			if (!result.isEmpty()) {
-				Collections.sort(result, new Comparator<Body>() {
-					@Override
-					public int compare(Body b1, Body b2) {
-						return new Float(b1.getCoord().distanceTo(coord)).compareTo(new Float(b2.getCoord().distanceTo(coord)));
-					}
-				});
-			}
-		} catch (Exception e) {
-			logger.error("Failed to find nearby Jump+5 bodies", e);
-		}
+	/**
+	 * @return
+	 *      Map&lt;category, matches&gt; of all material searches, nearest first
+	 */
+	private CompletableFuture<Map<MaterialCategory, List<Body>>> findNearbyMaterials(final Coord coord) {
+		logger.trace("Searching for materials around " + coord);
 
-		return result;
+		return this.materialQueryPlanner.query(coord, this.queryExecutor).exceptionally(e -> {
+			logger.error("Failed to find nearby materials", e);
+			return Collections.emptyMap();
+		});
 	}
 
-	private List<Body> findNearbyJumponiumRichBodies(final Coord coord, final float range) {
-		List<Body> result = new ArrayList<>();
-
-		try {
-			logger.trace("Searching for jumponium rich bodies " + range + " Ly around " + coord);
-
-			MaterialShare pol = new MaterialShare();
-			pol.setName(Element.POLONIUM);
-			pol.setPercent(new BigDecimal("0.5"));
-			MaterialShare ytt = new MaterialShare();
-			ytt.setName(Element.YTTRIUM);
-			ytt.setPercent(new BigDecimal("1.0"));
-			MaterialShare nio = new MaterialShare();
-			nio.setName(Element.NIOBIUM);
-			nio.setPercent(new BigDecimal("1.5"));
-			MaterialShare ars = new MaterialShare();
-			ars.setName(Element.ARSENIC);
-			ars.setPercent(new BigDecimal("2.0"));
-
-			// Polonium
-			Page<Body> page = this.galaxyService.findPlanetsHavingElementsNear(coord, range, Arrays.asList(pol, nio, ars), PageRequest.of(0, 10000));
-			while (page != null) {
-				for (Body body : page.getContent()) {
-					if (!result.contains(body)) {
-						result.add(body);
-					}
-				}
-				if (page.hasNext() && page.getNumber() + 1 < 10000 / page.getSize()) {
-					page = this.galaxyService.findPlanetsHavingElementsNear(coord, range, Arrays.asList(pol, nio, ars), page.nextPageable());
-				} else {
-					page = null;
-				}
-			}
-
-			// Yttrium
-			page = this.galaxyService.findPlanetsHavingElementsNear(coord, range, Arrays.asList(ytt, nio, ars), PageRequest.of(0, 10000));
-			while (page != null) {
-				for (Body body : page.getContent()) {
-					if (!result.contains(body)) {
-						result.add(body);
-					}
-				}
-				if (page.hasNext() && page.getNumber() + 1 < 10000 / page.getSize()) {
-					page = this.galaxyService.findPlanetsHavingElementsNear(coord, range, Arrays.asList(ytt, nio, ars), page.nextPageable());
-				} else {
-					page = null;
-				}
-			}
-
-			// Sort by distance
-			if (!result.isEmpty()) {
-				Collections.sort(result, new Comparator<Body>() {
-					@Override
-					public int compare(Body b1, Body b2) {
-						return new Float(b1.getCoord().distanceTo(coord)).compareTo(new Float(b2.getCoord().distanceTo(coord)));
-					}
-				});
-			}
-		} catch (Exception e) {
-			logger.error("Failed to find nearby jumponium rich bodies", e);
+	/**
+	 * @return
+	 *      The <code>limit</code> nearest jumponium rich bodies, nearest first
+	 */
+	private List<Body> nearestJumponiumRichBodies(final Coord coord, Map<MaterialCategory, List<Body>> materials, final int limit) {
+		// The nearest of both lists are the nearest of their union
+		Set<Body> candidates = new LinkedHashSet<>();
+		candidates.addAll(materials.getOrDefault(this.polRich, Collections.emptyList())); // Polonium
+		candidates.addAll(materials.getOrDefault(this.yttRich, Collections.emptyList())); // Yttrium
+		List<Body> result = sortByDistance(candidates, Body::getCoord, coord);
+		if (result.size() > limit) {
+			result.subList(limit, result.size()).clear();
 		}
-
 		return result;
 	}
 
 	/**
+	 * The candidate systems are the systems of the ELW/WW/AW and terraforming candidates nearby, so their coords are
+	 * already known. Systems without a known payout are looked up in two batches, first the systems (to skip populated
+	 * ones) and then the bodies of the remaining ones.
+	 *
 	 * @return
-	 *      Map&lt;systemName, systemPayout&gt;
+	 *      The unvisited systems worth at least 1M CR, most valuable first
 	 */
-	private LinkedHashMap<String, Long> findNearbyValuableSystems(final Coord coord, final float range, CommanderData commanderData) {
-		LinkedHashMap<String, Long> valueBySystem = new LinkedHashMap<>();
+	private List<ValuableSystem> findNearbyValuableSystems(final Coord coord, final float range, CommanderData commanderData) {
+		List<ValuableSystem> result = new ArrayList<>();
 
 		try {
 			logger.trace("Searching for valuable systems " + range + " Ly around " + coord);
 
-			final long maxDistanceFromArrival = 10_000L; // Ls
 			final long minValue = 1_000_000L; // CR
 
-			Set<String> starSystemNames = new HashSet<>();
-
-			List<PlanetClass> elwWwAw = Arrays.asList(PlanetClass.EARTHLIKE_BODY, PlanetClass.WATER_WORLD, PlanetClass.AMMONIA_WORLD);
-			Page<Body> page = this.galaxyService.findPlanetsNear(coord, range, /* isTerraformingCandidate = */ null, elwWwAw, PageRequest.of(0, 10000));
-			while (page != null) {
-				starSystemNames.addAll(page.getContent().stream().map(Body::getStarSystemName).filter(name -> StringUtils.isNotEmpty(name)).collect(Collectors.toList()));
-				if (page.hasNext() && page.getNumber() + 1 < 10000 / page.getSize()) {
-					page = this.galaxyService.findPlanetsNear(coord, range, /* isTerraformingCandidate = */ null, elwWwAw, page.nextPageable());
-				} else {
-					page = null;
+			Map<String, Coord> coordsBySystemName = new HashMap<>();
+			for (Body body : this.elwWwAwIndex.findWithin(coord, range)) {
+				if (StringUtils.isNotEmpty(body.getStarSystemName())) {
+					coordsBySystemName.putIfAbsent(body.getStarSystemName(), body.getCoord());
 				}
 			}
-
-			page = this.galaxyService.findPlanetsNear(coord, range, /* isTerraformingCandidate = */ Boolean.TRUE, null, PageRequest.of(0, 10000));
-			while (page != null) {
-				starSystemNames.addAll(page.getContent().stream().map(Body::getStarSystemName).filter(name -> StringUtils.isNotEmpty(name)).collect(Collectors.toList()));
-				if (page.hasNext() && page.getNumber() + 1 < 10000 / page.getSize()) {
-					page = this.galaxyService.findPlanetsNear(coord, range, /* isTerraformingCandidate = */ Boolean.TRUE, null, page.nextPageable());
-				} else {
-					page = null;
+			for (Body body : this.terraformingCandidateIndex.findWithin(coord, range)) {
+				if (StringUtils.isNotEmpty(body.getStarSystemName())) {
+					coordsBySystemName.putIfAbsent(body.getStarSystemName(), body.getCoord());
 				}
 			}
 
-			for (String starSystemName : starSystemNames) {
-				if (this.knownPayouts.containsKey(starSystemName)) {
-					long systemPayout = this.knownPayouts.get(starSystemName);
-					if (systemPayout >= minValue && !commanderData.visitedStarSystem(starSystemName)) {
-						valueBySystem.put(starSystemName, systemPayout);
-					}
-				} else {
-					if (this.populatedSystems.contains(starSystemName)) {
-						continue; // Public knowledge
-					}
-
-					boolean visited = commanderData.getVisitedStarSystems().stream().anyMatch(vss -> vss.getName().equals(starSystemName));
-					if (visited) {
-						continue; // Assume already scanned
-					}
+			Set<String> visitedStarSystemNames = commanderData.filterVisitedStarSystems(coordsBySystemName.keySet());
 
-					StarSystem starSystem = this.galaxyService.findStarSystemByName(starSystemName);
-					if (starSystem != null && starSystem.getPopulation() != null && starSystem.getPopulation().longValue() > 0) {
-						this.populatedSystems.add(starSystemName);
-						continue; // Public knowledge
+			List<String> unknownStarSystemNames = new ArrayList<>();
+			for (String starSystemName : coordsBySystemName.keySet()) {
+				if (visitedStarSystemNames.contains(starSystemName)) {
+					continue; // Assume already scanned
+				}
+				Long knownPayout = this.systemValuationStore.getPayout(starSystemName);
+				if (knownPayout != null) {
+					if (knownPayout.longValue() >= minValue) {
+						result.add(new ValuableSystem(starSystemName, coordsBySystemName.get(starSystemName), knownPayout.longValue()));
 					}
+				} else if (!this.systemValuationStore.isPopulated(starSystemName)) {
+					unknownStarSystemNames.add(starSystemName);
+				}
+			}
 
-					long systemPayout = 0L;
+			List<String> unpopulatedStarSystemNames = new ArrayList<>(unknownStarSystemNames.size());
+			Map<String, StarSystem> starSystems = this.galaxyService.findStarSystemsByNames(unknownStarSystemNames);
+			for (String starSystemName : unknownStarSystemNames) {
+				StarSystem starSystem = starSystems.get(starSystemName);
+				if (starSystem != null && starSystem.getPopulation() != null && starSystem.getPopulation().longValue() > 0) {
+					this.systemValuationStore.putPopulated(starSystemName); // Public knowledge
+				} else {
+					unpopulatedStarSystemNames.add(starSystemName);
+				}
+			}
 
-					List<Body> bodies = this.galaxyService.findBodiesByStarSystemName(starSystemName);
-					for (Body body : bodies) {
-						if (body.getDistanceToArrivalLs() != null && body.getDistanceToArrivalLs().longValue() <= maxDistanceFromArrival) {
-							systemPayout += BodyUtil.estimatePayout(body.getStarClass(), body.getPlanetClass(), TerraformingState.TERRAFORMABLE.equals(body.getTerraformingState()));
-						}
+			Map<String, List<Body>> bodiesByStarSystemName = this.galaxyService.findBodiesByStarSystemNames(unpopulatedStarSystemNames);
+			for (Map.Entry<String, List<Body>> entry : bodiesByStarSystemName.entrySet()) {
+				String starSystemName = entry.getKey();
+				long systemPayout = 0L;
+				for (Body body : entry.getValue()) {
+					if (body.getDistanceToArrivalLs() != null && body.getDistanceToArrivalLs().longValue() <= MAX_DISTANCE_FROM_ARRIVAL) {
+						systemPayout += BodyUtil.estimatePayout(body.getStarClass(), body.getPlanetClass(), TerraformingState.TERRAFORMABLE.equals(body.getTerraformingState()));
 					}
+				}
 
-					this.knownPayouts.put(starSystemName, systemPayout);
+				this.systemValuationStore.putPayout(starSystemName, systemPayout);
 
-					logger.trace(starSystemName + " = " + systemPayout + " CR");
+				logger.trace(starSystemName + " = " + systemPayout + " CR");
 
-					if (systemPayout >= minValue) {
-						valueBySystem.put(starSystemName, systemPayout);
-					}
+				if (systemPayout >= minValue) {
+					result.add(new ValuableSystem(starSystemName, coordsBySystemName.get(starSystemName), systemPayout));
 				}
 			}
 
-			MiscUtil.sortMapByValueReverse(valueBySystem);
+			result.sort((s1, s2) -> Long.compare(s2.getPayout(), s1.getPayout()));
 		} catch (Exception e) {
 			logger.error("Failed to find nearby valuable systems", e);
 		}
 
-		return valueBySystem;
+		return result;
 	}
 
-	private List<StarSystem> findNearbyJumponiumRichSystems(final Coord coord, final float range) {
+	private List<StarSystem> findNearbyJumponiumRichSystems(final Coord coord, List<Body> poloniumBodies, List<Body> yttriumBodies) {
 		List<StarSystem> result = new ArrayList<>();
 
 		try {
-			logger.trace("Searching for jumponium rich systems " + range + " Ly around " + coord);
-
-			MaterialShare pol = new MaterialShare();
-			pol.setName(Element.POLONIUM);
-			MaterialShare ytt = new MaterialShare();
-			ytt.setName(Element.YTTRIUM);
+			logger.trace("Searching for jumponium rich systems around " + coord);
 
 			Set<String> poloniumSystemNames = new HashSet<>();
 			Set<String> yttriumSystemNames = new HashSet<>();
 
 			// Polonium
-			Page<Body> page = this.galaxyService.findPlanetsHavingElementsNear(coord, range, Arrays.asList(pol), PageRequest.of(0, 10000));
-			while (page != null) {
-				for (Body body : page.getContent()) {
-					if (StringUtils.isNotEmpty(body.getStarSystemName())) {
-						poloniumSystemNames.add(body.getStarSystemName());
-					}
-				}
-				if (page.hasNext() && page.getNumber() + 1 < 10000 / page.getSize()) {
-					page = this.galaxyService.findPlanetsHavingElementsNear(coord, range, Arrays.asList(pol), page.nextPageable());
-				} else {
-					page = null;
+			for (Body body : poloniumBodies) {
+				if (StringUtils.isNotEmpty(body.getStarSystemName())) {
+					poloniumSystemNames.add(body.getStarSystemName());
 				}
 			}
 
 			// Yttrium
-			page = this.galaxyService.findPlanetsHavingElementsNear(coord, range, Arrays.asList(ytt), PageRequest.of(0, 10000));
-			while (page != null) {
-				for (Body body : page.getContent()) {
-					if (StringUtils.isNotEmpty(body.getStarSystemName())) {
-						yttriumSystemNames.add(body.getStarSystemName());
-					}
-				}
-				if (page.hasNext() && page.getNumber() + 1 < 10000 / page.getSize()) {
-					page = this.galaxyService.findPlanetsHavingElementsNear(coord, range, Arrays.asList(ytt), page.nextPageable());
-				} else {
-					page = null;
+			for (Body body : yttriumBodies) {
+				if (StringUtils.isNotEmpty(body.getStarSystemName())) {
+					yttriumSystemNames.add(body.getStarSystemName());
 				}
 			}
 
@@ -490,34 +630,19 @@ public class DiscoveryPanel extends JPanel {
 			Set<String> systemNames = new HashSet<>(poloniumSystemNames);
 			systemNames.retainAll(yttriumSystemNames);
 
-			for (String systemName : systemNames) {
-				StarSystem starSystem = this.galaxyService.findStarSystemByName(systemName);
-				if (starSystem != null) {
-					Map<Element, BigDecimal> totalMaterials = this.sumMaterialsOfSystem(systemName);
-					BigDecimal polonium = totalMaterials.getOrDefault(Element.POLONIUM, BigDecimal.ZERO);
-					BigDecimal yttrium = totalMaterials.getOrDefault(Element.YTTRIUM, BigDecimal.ZERO);
-					BigDecimal cadmium = totalMaterials.getOrDefault(Element.CADMIUM, BigDecimal.ZERO);
-					BigDecimal niobium = totalMaterials.getOrDefault(Element.NIOBIUM, BigDecimal.ZERO);
-					BigDecimal arsenic = totalMaterials.getOrDefault(Element.ARSENIC, BigDecimal.ZERO);
-					BigDecimal germanium = totalMaterials.getOrDefault(Element.GERMANIUM, BigDecimal.ZERO);
-					BigDecimal vanadium = totalMaterials.getOrDefault(Element.VANADIUM, BigDecimal.ZERO);
-
-					if (polonium.floatValue() >= 1.5 && yttrium.floatValue() >= 2 && cadmium.floatValue() > 0 && niobium.floatValue() > 0 && arsenic.floatValue() > 0
-							&& germanium.floatValue() > 0 && vanadium.floatValue() > 0) {
-						result.add(starSystem);
-					}
+			Map<String, StarSystem> starSystems = this.galaxyService.findStarSystemsByNames(systemNames);
+			Map<String, MaterialTotals> totalsByStarSystemName = this.galaxyService.getMaterialTotals(starSystems.keySet());
+			for (StarSystem starSystem : starSystems.values()) {
+				MaterialTotals totalMaterials = totalsByStarSystemName.get(starSystem.getName());
+				if (totalMaterials != null && totalMaterials.meets(JUMPONIUM_RICH_SYSTEM)) {
+					result.add(starSystem);
 				}
 			}
 
 			// Sort by distance
-			if (!result.isEmpty()) {
-				Collections.sort(result, new Comparator<StarSystem>() {
-					@Override
-					public int compare(StarSystem b1, StarSystem b2) {
-						return new Float(b1.getCoord().distanceTo(coord)).compareTo(new Float(b2.getCoord().distanceTo(coord)));
-					}
-				});
-			}
+			List<StarSystem> sorted = sortByDistance(result, StarSystem::getCoord, coord);
+			result.clear();
+			result.addAll(sorted);
 		} catch (Exception e) {
 			logger.error("Failed to find nearby jumponium rich systems", e);
 		}
@@ -525,22 +650,76 @@ public class DiscoveryPanel extends JPanel {
 		return result;
 	}
 
-	private Map<Element, BigDecimal> sumMaterialsOfSystem(String systemName) {
-		final Map<Element, BigDecimal> result = new TreeMap<>();
-
-		List<Body> bodies = this.galaxyService.findBodiesByStarSystemName(systemName);
-		for (Body body : bodies) {
-			if (body.getMaterialShares() != null) {
-				body.getMaterialShares().stream().filter(sh -> sh.getPercent() != null).forEach(sh -> {
-					BigDecimal total = result.getOrDefault(sh.getName(), BigDecimal.ZERO);
-					result.put(sh.getName(), total.add(sh.getPercent()));
-				});
-			}
+	/**
+	 * Sorts by distance to the given coord, computing each distance only once instead of twice per comparison
+	 */
+	private static <T> List<T> sortByDistance(Collection<T> values, Function<T, Coord> coordGetter, Coord coord) {
+		final float x = coord.getX();
+		final float y = coord.getY();
+		final float z = coord.getZ();
+
+		List<T> list = new ArrayList<>(values);
+		float[] distancesSquared = new float[list.size()];
+		Integer[] order = new Integer[list.size()];
+		for (int i = 0; i < order.length; i++) {
+			Coord c = coordGetter.apply(list.get(i));
+			float dx = c.getX() - x;
+			float dy = c.getY() - y;
+			float dz = c.getZ() - z;
+			distancesSquared[i] = dx * dx + dy * dy + dz * dz;
+			order[i] = i;
 		}
+		Arrays.sort(order, (i1, i2) -> Float.compare(distancesSquared[i1], distancesSquared[i2]));
 
+		List<T> result = new ArrayList<>(list.size());
+		for (Integer i : order) {
+			result.add(list.get(i));
+		}
 		return result;
 	}
 
+	private static MaterialShare materialShare(Element element, String minPercent) {
+		MaterialShare materialShare = new MaterialShare();
+		materialShare.setName(element);
+		if (minPercent != null) {
+			materialShare.setPercent(new BigDecimal(minPercent));
+		}
+		return materialShare;
+	}
+
+	/**
+	 * The independently refreshed parts of the panel
+	 */
+	private enum Section {
+		KNOWN_BODIES, NEUTRON_STARS, VALUABLE_SYSTEMS, JUMPONIUM;
+	}
+
+	private static class ValuableSystem {
+
+		private final String name;
+		private final Coord coord;
+		private final long payout;
+
+		ValuableSystem(String name, Coord coord, long payout) {
+			this.name = name;
+			this.coord = coord;
+			this.payout = payout;
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		public Coord getCoord() {
+			return this.coord;
+		}
+
+		public long getPayout() {
+			return this.payout;
+		}
+
+	}
+
 	public static class POI implements Serializable {
 
 		private static final long serialVersionUID = 3186440335442864776L;
@@ -579,6 +758,17 @@ public class DiscoveryPanel extends JPanel {
 
 		private static final long serialVersionUID = 8383226308842901529L;
 
+		private static final Color BACKGROUND_COLOR = new Color(20, 20, 25);
+
+		private static final BasicStroke TRAVEL_STROKE = new BasicStroke(2);
+
+		/**
+		 * Colors by alpha, so painting does not create a new color for every line and label
+		 */
+		private static final Color[] TRAVEL_COLORS = alphaRamp(160, 160, 160);
+		private static final Color[] COMMANDER_COLORS = alphaRamp(0, 255, 255);
+		private static final Color[] POI_COLORS = alphaRamp(0, 255, 0);
+
 		private final CommanderData commanderData;
 		private final Map<String, OtherCommanderLocation> otherCommanders;
 
@@ -586,6 +776,8 @@ public class DiscoveryPanel extends JPanel {
 
 		private GalaxyService galaxyService = null;
 
+		private final StarMapRenderer renderer;
+
 		float zoom = 100f;
 		float xsize = 0f;
 		float xfrom = 0f;
@@ -602,6 +794,7 @@ public class DiscoveryPanel extends JPanel {
 			this.otherCommanders = otherCommanders;
 
 			this.galaxyService = appctx.getBean(GalaxyService.class);
+			this.renderer = new StarMapRenderer(new StarMapTileCache(new StarFieldPointCache(this.galaxyService)), this::repaint);
 
 			try {
 				this.POIS.add(new POI("Sol", galaxyService));
@@ -678,12 +871,16 @@ public class DiscoveryPanel extends JPanel {
 			this.repaint();
 		}
 
+		public void shutdown() {
+			this.renderer.shutdown();
+		}
+
 		@Override
 		public void paint(Graphics g) {
 			super.paintComponent(g);
 
 			// Black background
-			g.setColor(new Color(20, 20, 25));
+			g.setColor(BACKGROUND_COLOR);
 			g.fillRect(0, 0, this.getWidth(), this.getHeight());
 
 			Coord coord = this.commanderData.getCurrentCoord();
@@ -706,85 +903,56 @@ public class DiscoveryPanel extends JPanel {
 
 			// My travel history
 			logger.trace("Painting travel history");
-			if (this.commanderData.getVisitedStarSystems().size() >= 2) {
-				int toIndex = this.commanderData.getVisitedStarSystems().size();
-				int fromIndex = Math.max(0, toIndex - 128);
+			TravelHistory.Range lastJumps = this.commanderData.getTravelHistory().last(128);
+			if (lastJumps.size() >= 2) {
+				((Graphics2D) g).setStroke(TRAVEL_STROKE);
 				int alpha = 0;
-				Point prev = null;
-				for (int idx = fromIndex; idx < toIndex; idx++) {
-					VisitedStarSystem visitedStarSystem = this.commanderData.getVisitedStarSystems().get(idx);
-					Point curr = this.coordToPoint(visitedStarSystem.getCoord());
-					if (prev != null) {
-						alpha += 2;
-						((Graphics2D) g).setStroke(new BasicStroke(2));
-						g.setColor(new Color(160, 160, 160, alpha));
-						g.drawLine(prev.x, prev.y, curr.x, curr.y);
-					}
-					prev = curr;
+				int prevX = this.toPixelX(lastJumps.getX(0));
+				int prevY = this.toPixelY(lastJumps.getZ(0));
+				for (int idx = 1; idx < lastJumps.size(); idx++) {
+					int currX = this.toPixelX(lastJumps.getX(idx));
+					int currY = this.toPixelY(lastJumps.getZ(idx));
+					alpha = Math.min(255, alpha + 2);
+					g.setColor(TRAVEL_COLORS[alpha]);
+					g.drawLine(prevX, prevY, currX, currY);
+					prevX = currX;
+					prevY = currY;
 				}
 			}
 
-			// Known systems
-			logger.trace("Painting known systems");
-			try (CloseableIterator<StarSystem> stream = this.galaxyService.streamAllSystemsWithin(xfrom, xto, yfrom, yto, zfrom, zto)) {
-				stream.forEachRemaining(system -> {
-					Point p = this.coordToPoint(system.getCoord());
-					float dy = Math.abs(system.getCoord().getY() - coord.getY());
-					int alpha = 255 - Math.round((dy / (ysize / 2)) * 255);
-
-					if (alpha > 0) {
-						g.setColor(new Color(80, 80, 80, alpha));
-						g.fillRect(p.x - poffset, p.y - poffset, psize, psize);
-						//g.fillRect(p.x, p.y, 1, 1);
-					}
-				});
-			}
-
-			// Known entry stars
-			logger.trace("Painting known entry stars");
-			try (CloseableIterator<Body> stream = this.galaxyService.streamStarsWithin(xfrom, xto, yfrom, yto, zfrom, zto, /* isMainStar = */ Boolean.TRUE, /* starClasses = */ null)) {
-				stream.forEachRemaining(mainStar -> {
-					if (mainStar.getStarClass() != null) {
-						Point p = this.coordToPoint(mainStar.getCoord());
-						float dy = Math.abs(mainStar.getCoord().getY() - coord.getY());
-						int alpha = 255 - Math.round((dy / (ysize / 2)) * 127);
-
-						if (alpha > 0) {
-							Color color = StarUtil.starClassToColor(mainStar.getStarClass());
-							g.setColor(new Color(color.getRed(), color.getGreen(), color.getBlue(), alpha));
-							g.fillRect(p.x - poffset, p.y - poffset, psize, psize);
-							//g.fillRect(p.x, p.y, 1, 1);
-						}
-					}
-				});
+			// Known systems and entry stars, rendered in the background
+			logger.trace("Painting star field");
+			final float tileYsize = StarMapTileCache.TileKey.snapYsize(ysize);
+			StarMapRenderer.View view = new StarMapRenderer.View(xfrom, zto, zsize / this.getHeight(), tileYsize, psize, StarMapTileCache.TileKey.slabOf(coord.getY(), tileYsize),
+					this.getWidth(), this.getHeight());
+			if (!this.renderer.drawLatestFrame(g, view)) {
+				this.renderer.request(view);
 			}
 
 			// Other commanders
 			logger.trace("Painting other commanders");
 			g.setFont(new Font("Sans Serif", Font.PLAIN, 12));
 			for (OtherCommanderLocation location : this.otherCommanders.values()) {
-				Point p = this.coordToPoint(location.getCoord());
 				float dy = Math.abs(location.getCoord().getY() - coord.getY());
 				int alpha = 255 - Math.round((dy / (ysize / 2)) * 127);
 
 				if (alpha > 0) {
-					g.setColor(new Color(0, 255, 255, alpha));
+					g.setColor(COMMANDER_COLORS[alpha]);
 					//g.fillRect(p.x - poffset, p.y - poffset, psize, psize);
-					g.drawString(location.getCommanderName(), p.x, p.y);
+					g.drawString(location.getCommanderName(), this.toPixelX(location.getCoord().getX()), this.toPixelY(location.getCoord().getZ()));
 				}
 			}
 
 			// POIs
 			logger.trace("Painting POIs");
 			for (POI poi : POIS) {
-				Point p = this.coordToPoint(poi.getCoord());
 				float dy = Math.abs(poi.getCoord().getY() - coord.getY());
 				int alpha = 255 - Math.round((dy / (ysize / 2)) * 127);
 
 				if (alpha > 0) {
-					g.setColor(new Color(0, 255, 0, alpha));
+					g.setColor(POI_COLORS[alpha]);
 					//g.fillRect(p.x - poffset, p.y - poffset, psize, psize);
-					g.drawString(poi.getName(), p.x, p.y);
+					g.drawString(poi.getName(), this.toPixelX(poi.getCoord().getX()), this.toPixelY(poi.getCoord().getZ()));
 				}
 			}
 
@@ -793,11 +961,24 @@ public class DiscoveryPanel extends JPanel {
 			g.drawString(String.format(Locale.US, "%,.0f Ly x %,.0f Ly", xsize, zsize), 5, 15);
 		}
 
-		private Point coordToPoint(Coord coord) {
-			float xPercent = (coord.getX() - this.xfrom) / this.xsize;
-			float yPercent = 1.0f - ((coord.getZ() - this.zfrom) / this.zsize);
+		private int toPixelX(float x) {
+			float xPercent = (x - this.xfrom) / this.xsize;
 
-			return new Point(Math.round(xPercent * this.getWidth()), Math.round(yPercent * this.getHeight()));
+			return Math.round(xPercent * this.getWidth());
+		}
+
+		private int toPixelY(float z) {
+			float yPercent = 1.0f - ((z - this.zfrom) / this.zsize);
+
+			return Math.round(yPercent * this.getHeight());
+		}
+
+		private static Color[] alphaRamp(int r, int g, int b) {
+			Color[] colors = new Color[256];
+			for (int alpha = 0; alpha < colors.length; alpha++) {
+				colors[alpha] = new Color(r, g, b, alpha);
+			}
+			return colors;
 		}
 
 		@Override
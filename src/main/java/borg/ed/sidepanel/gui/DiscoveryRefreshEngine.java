@@ -0,0 +1,163 @@
+package borg.ed.sidepanel.gui;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.swing.SwingUtilities;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import borg.ed.galaxy.data.Coord;
+
+/**
+ * Runs discovery refreshes one after another on a background thread instead of the EDT or the journal thread. Each
+ * refresh is tagged with the coordinate it has been started for. As soon as a refresh for a different coordinate is
+ * submitted (i.e. after a jump) the older one is cancelled, and whatever it still tries to publish is discarded.
+ * Refreshes for the same coordinate (e.g. after EDDN updates nearby) are not cancelled, but a second one waiting for the
+ * same coordinate is not queued again.
+ *
+ * @author <a href="mailto:b.guenther@xsite.de">Boris Guenther</a>
+ */
+public class DiscoveryRefreshEngine {
+
+	static final Logger logger = LoggerFactory.getLogger(DiscoveryRefreshEngine.class);
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "DiscoveryRefresh");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * The coordinate of the most recently submitted refresh. Refreshes for any other coordinate are stale.
+	 */
+	private volatile Coord latestCoord = null;
+
+	private Ticket running = null;
+
+	private Ticket waiting = null;
+
+	/**
+	 * @param coord
+	 *      The coordinate the refresh is computed for
+	 * @param task
+	 *      Computes the refresh on the background thread and publishes its results through the ticket
+	 */
+	public synchronized void submit(Coord coord, RefreshTask task) {
+		this.latestCoord = coord;
+
+		if (this.waiting != null && !this.waiting.future.isDone()) {
+			if (sameCoord(this.waiting.coord, coord)) {
+				return; // Will do exactly the same work
+			}
+			this.waiting.future.cancel(false);
+		}
+		if (this.running != null && !this.running.future.isDone() && !sameCoord(this.running.coord, coord)) {
+			logger.debug("Cancelling refresh for " + this.running.coord);
+			this.running.future.cancel(true);
+		}
+
+		final Ticket ticket = new Ticket(coord);
+		ticket.future = this.executor.submit(() -> this.run(ticket, task));
+		this.waiting = ticket;
+	}
+
+	public void shutdown() {
+		this.executor.shutdownNow();
+	}
+
+	private void run(Ticket ticket, RefreshTask task) {
+		synchronized (this) {
+			if (this.waiting == ticket) {
+				this.waiting = null;
+			}
+			this.running = ticket;
+		}
+
+		try {
+			if (ticket.isCurrent()) {
+				long start = System.currentTimeMillis();
+				task.refresh(ticket.coord, ticket);
+				logger.debug("Refresh for " + ticket.coord + " took " + (System.currentTimeMillis() - start) + " ms");
+			}
+		} catch (CancellationException e) {
+			logger.debug("Refresh for " + ticket.coord + " has been cancelled");
+		} catch (InterruptedException e) {
+			logger.debug("Refresh for " + ticket.coord + " has been interrupted");
+		} catch (Exception e) {
+			if (ticket.isCurrent()) {
+				logger.error("Refresh for " + ticket.coord + " failed", e);
+			}
+		} finally {
+			Thread.interrupted(); // Do not leak a cancellation into the next refresh
+		}
+	}
+
+	static boolean sameCoord(Coord c1, Coord c2) {
+		if (c1 == null || c2 == null) {
+			return c1 == c2;
+		}
+		return c1.getX() == c2.getX() && c1.getY() == c2.getY() && c1.getZ() == c2.getZ();
+	}
+
+	@FunctionalInterface
+	public interface RefreshTask {
+
+		void refresh(Coord coord, Ticket ticket) throws Exception;
+
+	}
+
+	/**
+	 * Handed to a running refresh to check whether its results are still wanted and to publish them on the EDT
+	 */
+	public class Ticket {
+
+		private final Coord coord;
+
+		private Future<?> future = null;
+
+		private Ticket(Coord coord) {
+			this.coord = coord;
+		}
+
+		public Coord getCoord() {
+			return this.coord;
+		}
+
+		/**
+		 * @return
+		 *      <code>false</code> if this refresh has been cancelled or the commander has moved on since it was started
+		 */
+		public boolean isCurrent() {
+			return !Thread.currentThread().isInterrupted() && (this.future == null || !this.future.isCancelled()) && sameCoord(this.coord, DiscoveryRefreshEngine.this.latestCoord);
+		}
+
+		/**
+		 * To be called between expensive steps of a refresh, so a stale one stops early
+		 *
+		 * @throws CancellationException
+		 *      If this refresh is no longer current
+		 */
+		public void checkCurrent() {
+			if (!this.isCurrent()) {
+				throw new CancellationException("Refresh for " + this.coord + " is stale");
+			}
+		}
+
+		/**
+		 * Runs the given update on the EDT, unless this refresh has become stale by then
+		 */
+		public void publish(Runnable update) {
+			SwingUtilities.invokeLater(() -> {
+				if ((this.future == null || !this.future.isCancelled()) && sameCoord(this.coord, DiscoveryRefreshEngine.this.latestCoord)) {
+					update.run();
+				}
+			});
+		}
+
+	}
+
+}
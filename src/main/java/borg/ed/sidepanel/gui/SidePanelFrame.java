@@ -6,11 +6,16 @@ import java.awt.HeadlessException;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.JFrame;
 import javax.swing.JTabbedPane;
@@ -24,7 +29,6 @@ import borg.ed.galaxy.data.Coord;
 import borg.ed.galaxy.eddn.EddnBufferThread;
 import borg.ed.galaxy.eddn.EddnReaderThread;
 import borg.ed.galaxy.eddn.EddnUpdateListener;
-import borg.ed.galaxy.journal.JournalReaderThread;
 import borg.ed.galaxy.journal.JournalUpdateListener;
 import borg.ed.galaxy.journal.events.AbstractJournalEvent;
 import borg.ed.galaxy.journal.events.DockedEvent;
@@ -33,7 +37,9 @@ import borg.ed.galaxy.journal.events.LocationEvent;
 import borg.ed.galaxy.journal.events.ScanEvent;
 import borg.ed.sidepanel.SidepanelApplication;
 import borg.ed.sidepanel.commander.CommanderData;
+import borg.ed.sidepanel.commander.JournalTailThread;
 import borg.ed.sidepanel.commander.OtherCommanderLocation;
+import borg.ed.sidepanel.galaxy.SystemValuationStore;
 
 /**
  * SidePanelFrame
@@ -46,30 +52,38 @@ public class SidePanelFrame extends JFrame implements WindowListener, JournalUpd
 
 	static final Logger logger = LoggerFactory.getLogger(SidePanelFrame.class);
 
-	private final JournalReaderThread journalReaderThread;
+	private final JournalTailThread journalTailThread;
 	private final EddnReaderThread eddnReaderThread;
 	private final EddnBufferThread eddnBufferThread;
 	private final CommanderData commanderData;
 	private final Map<String, OtherCommanderLocation> otherCommanders;
+	private final SystemValuationStore systemValuationStore;
 
 	private final ExecutorService delayedEsUpdateThreadPool = Executors.newFixedThreadPool(1);
-	private long lastDiscoveryPanelUpdate = 0L;
+
+	/**
+	 * Nearby EDDN scans waiting to be applied to the discovery panel
+	 */
+	private final Queue<ScanEvent> pendingScans = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean scanUpdateScheduled = new AtomicBoolean(false);
 
 	private StatusPanel statusPanel = null;
 	private DiscoveryPanel discoveryPanel = null;
 	private JTabbedPane tabbedPane = null;
 
-	public SidePanelFrame(String title, ApplicationContext appctx, CommanderData commanderData, Map<String, OtherCommanderLocation> otherCommanders) throws HeadlessException {
+	public SidePanelFrame(String title, ApplicationContext appctx, CommanderData commanderData, Map<String, OtherCommanderLocation> otherCommanders, SystemValuationStore systemValuationStore)
+			throws HeadlessException {
 		super(title);
 
-		this.journalReaderThread = appctx.getBean(JournalReaderThread.class);
+		this.journalTailThread = new JournalTailThread(commanderData);
 		this.eddnReaderThread = appctx.getBean(EddnReaderThread.class);
 		this.eddnBufferThread = appctx.getBean(EddnBufferThread.class);
 		this.commanderData = commanderData;
 		this.otherCommanders = otherCommanders;
+		this.systemValuationStore = systemValuationStore;
 
 		this.statusPanel = new StatusPanel();
-		this.discoveryPanel = new DiscoveryPanel(appctx, commanderData, otherCommanders);
+		this.discoveryPanel = new DiscoveryPanel(appctx, commanderData, otherCommanders, systemValuationStore);
 		this.tabbedPane = new JTabbedPane();
 		this.tabbedPane.setFont(new Font("Sans Serif", Font.BOLD, 18));
 		this.tabbedPane.addTab("Discovery", this.discoveryPanel);
@@ -85,8 +99,8 @@ public class SidePanelFrame extends JFrame implements WindowListener, JournalUpd
 
 	@Override
 	public void windowOpened(WindowEvent e) {
-		this.journalReaderThread.addListener(this);
-		this.journalReaderThread.start();
+		this.journalTailThread.addListener(this);
+		this.journalTailThread.start();
 		this.eddnBufferThread.addListener(this);
 		this.eddnBufferThread.start();
 		this.eddnReaderThread.start();
@@ -97,13 +111,14 @@ public class SidePanelFrame extends JFrame implements WindowListener, JournalUpd
 
 	@Override
 	public void windowClosing(WindowEvent e) {
-		this.journalReaderThread.interrupt();
+		this.journalTailThread.interrupt();
 		eddnReaderThread.interrupt();
+		this.discoveryPanel.shutdown();
 	}
 
 	@Override
 	public void windowClosed(WindowEvent e) {
-		while (this.journalReaderThread.isAlive()) {
+		while (this.journalTailThread.isAlive()) {
 			try {
 				Thread.sleep(10);
 			} catch (InterruptedException ex) {
@@ -118,6 +133,10 @@ public class SidePanelFrame extends JFrame implements WindowListener, JournalUpd
 			}
 		}
 
+		this.commanderData.saveSnapshot();
+		this.commanderData.close();
+		this.systemValuationStore.save();
+
 		System.exit(0);
 	}
 
@@ -143,13 +162,11 @@ public class SidePanelFrame extends JFrame implements WindowListener, JournalUpd
 
 	@Override
 	public void onNewJournalEntry(AbstractJournalEvent event) {
-		if (this.commanderData.updateFromJournalEvent(event)) {
-
-			this.statusPanel.updateFromCommanderData(this.commanderData);
+		// Already applied to the commander data by the journal tail thread
+		this.statusPanel.updateFromCommanderData(this.commanderData);
 
-			if (event instanceof FSDJumpEvent) {
-				this.discoveryPanel.updateFromElasticsearch(/* repaintMap = */ true);
-			}
+		if (event instanceof FSDJumpEvent) {
+			this.discoveryPanel.updateFromElasticsearch(/* repaintMap = */ true);
 		}
 	}
 
@@ -158,13 +175,14 @@ public class SidePanelFrame extends JFrame implements WindowListener, JournalUpd
 		if (event != null) {
 			Coord currentCoord = this.commanderData.getCurrentCoord();
 			Coord eventCoord = null;
+			ScanEvent scanEvent = null;
 
 			if (event instanceof FSDJumpEvent) {
 				FSDJumpEvent fsdJumpEvent = (FSDJumpEvent) event;
 				eventCoord = fsdJumpEvent.getStarPos();
 				this.updateOtherCommanders(uploaderID, event.getTimestamp(), fsdJumpEvent.getStarPos(), fsdJumpEvent.getStarSystem());
 			} else if (event instanceof ScanEvent) {
-				ScanEvent scanEvent = (ScanEvent) event;
+				scanEvent = (ScanEvent) event;
 				eventCoord = scanEvent.getStarPos();
 				this.updateOtherCommanders(uploaderID, event.getTimestamp(), scanEvent.getStarPos(), scanEvent.getStarSystem());
 			} else if (event instanceof DockedEvent) {
@@ -177,8 +195,10 @@ public class SidePanelFrame extends JFrame implements WindowListener, JournalUpd
 				this.updateOtherCommanders(uploaderID, event.getTimestamp(), locationEvent.getStarPos(), locationEvent.getStarSystem());
 			}
 
-			if (currentCoord != null && eventCoord != null && currentCoord.distanceTo(eventCoord) <= this.discoveryPanel.getVisibleDistance()) {
-				logger.info("Event at " + eventCoord + " -- Ly distance: " + currentCoord.distanceTo(eventCoord));
+			// Only scans change what the discovery panel shows
+			if (scanEvent != null && currentCoord != null && eventCoord != null && currentCoord.distanceTo(eventCoord) <= this.discoveryPanel.getVisibleDistance()) {
+				logger.info("Scan at " + eventCoord + " -- Ly distance: " + currentCoord.distanceTo(eventCoord));
+				this.pendingScans.add(scanEvent);
 				this.updateDiscoveryPanelDelayed();
 			}
 		}
@@ -210,19 +230,29 @@ public class SidePanelFrame extends JFrame implements WindowListener, JournalUpd
 		}
 	}
 
+	/**
+	 * Gives the backend some time to index the scans, then applies all scans which have arrived in the meantime at once
+	 */
 	private void updateDiscoveryPanelDelayed() {
 		try {
-			long now = System.currentTimeMillis();
-			if (now - this.lastDiscoveryPanelUpdate >= 10000L) {
-				this.lastDiscoveryPanelUpdate = now;
+			if (this.scanUpdateScheduled.compareAndSet(false, true)) {
 				this.delayedEsUpdateThreadPool.execute(new Runnable() {
 					@Override
 					public void run() {
 						try {
 							Thread.sleep(5000L);
-							SidePanelFrame.this.discoveryPanel.updateFromElasticsearch(/* repaintMap = */ false);
+							SidePanelFrame.this.scanUpdateScheduled.set(false);
+							List<ScanEvent> scanEvents = new ArrayList<>();
+							for (ScanEvent scanEvent = SidePanelFrame.this.pendingScans.poll(); scanEvent != null; scanEvent = SidePanelFrame.this.pendingScans.poll()) {
+								scanEvents.add(scanEvent);
+							}
+							if (!scanEvents.isEmpty()) {
+								SidePanelFrame.this.discoveryPanel.updateFromScans(scanEvents);
+							}
 						} catch (InterruptedException e) {
 							// Quit
+						} catch (Exception e) {
+							logger.error("Failed to update DiscoveryPanel", e);
 						}
 					}
 				});
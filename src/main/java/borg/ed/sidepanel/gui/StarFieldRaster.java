@@ -0,0 +1,334 @@
+package borg.ed.sidepanel.gui;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import borg.ed.galaxy.constants.StarClass;
+import borg.ed.galaxy.util.StarUtil;
+
+/**
+ * Collects the systems and entry stars of one map tile and paints them.
+ *
+ * <p>As long as a view is expected to hold fewer points than pixels every point is painted on its own, exactly like
+ * before. Once there are more points than pixels, individual points stop being distinguishable anyway and the raster
+ * uses level of detail instead: Every point is only added to the bin of its pixel, which counts the points (weighted by
+ * their vertical distance and by the number of points they stand for) and counts the stars per color group, i.e. per distinct color of
+ * {@link StarUtil#starClassToColor(StarClass)}. The most frequent group determines the color of the bin. The tile is
+ * then painted as a density heatmap, one pixel per bin, so painting costs the same no matter how many stars are in
+ * view.</p>
+ *
+ * <p>Both the mode and the brightness of a bin are derived from {@link #REFERENCE_DENSITY}, the scale and the visible
+ * height, not from the points of the tile. All tiles of a view therefore use the same mode and the same scale, and the
+ * map has no seams.</p>
+ *
+ * <p>Colors come from a lookup table by star class and alpha which is built once, so neither mode allocates anything
+ * per point.</p>
+ *
+ * @author <a href="mailto:b.guenther@xsite.de">Boris Guenther</a>
+ */
+final class StarFieldRaster {
+
+	private static final StarClass[] STAR_CLASSES = StarClass.values();
+
+	private static final int NO_CLASS = -1;
+
+	private static final int SYSTEM_GRAY = 80;
+
+	/**
+	 * Points per Ly&sup3; at which a bin reaches full brightness, about the density of known systems in the populated
+	 * bubble
+	 */
+	private static final float REFERENCE_DENSITY = 0.001f;
+
+	private static final int[] ARGB_LUT = buildArgbLut();
+
+	/**
+	 * Color group of each star class ordinal, see {@link #buildColorGroups()}
+	 */
+	private static final int[] COLOR_GROUPS = buildColorGroups();
+
+	private static final int N_COLOR_GROUPS = Arrays.stream(COLOR_GROUPS).max().orElse(-1) + 1;
+
+	/**
+	 * The first star class ordinal of each color group, painted for all of them
+	 */
+	private static final int[] COLOR_GROUP_CLASSES = buildColorGroupClasses();
+
+	private final int size;
+	private final float xmin;
+	private final float zmax;
+	private final float lyPerPixel;
+	private final float slabY;
+	private final float halfHeight;
+	private final int psize;
+
+	/**
+	 * Individual points unless in level of detail mode: Pixel index, star class ordinal (or {@link #NO_CLASS}) and alpha
+	 */
+	private int nPoints = 0;
+	private int[] pointPixels = new int[1024];
+	private int[] pointClasses = new int[1024];
+	private int[] pointAlphas = new int[1024];
+
+	/**
+	 * Density bins, one per pixel, only allocated in level of detail mode
+	 */
+	private float[] systemWeights = null;
+	private float[] starWeights = null;
+
+	/**
+	 * Number of stars per bin and color group at <code>pixel * N_COLOR_GROUPS + group</code>, saturating
+	 */
+	private char[] colorGroupCounts = null;
+
+	StarFieldRaster(int size, float xmin, float zmax, float lyPerPixel, float slabY, float halfHeight, int psize) {
+		this.size = size;
+		this.xmin = xmin;
+		this.zmax = zmax;
+		this.lyPerPixel = lyPerPixel;
+		this.slabY = slabY;
+		this.halfHeight = halfHeight;
+		this.psize = psize;
+
+		if (isLevelOfDetail(lyPerPixel, halfHeight)) {
+			final int n = size * size;
+			this.systemWeights = new float[n];
+			this.starWeights = new float[n];
+			this.colorGroupCounts = new char[n * N_COLOR_GROUPS];
+			this.pointPixels = null;
+			this.pointClasses = null;
+			this.pointAlphas = null;
+		}
+	}
+
+	/**
+	 * @return
+	 *      <code>true</code> if a column of one pixel through the visible height holds at least one point at
+	 *      {@link #REFERENCE_DENSITY}, i.e. a view at this scale is painted as a density heatmap
+	 */
+	static boolean isLevelOfDetail(float lyPerPixel, float halfHeight) {
+		return REFERENCE_DENSITY * lyPerPixel * lyPerPixel * 2 * halfHeight >= 1f;
+	}
+
+	boolean isLevelOfDetail() {
+		return this.systemWeights != null;
+	}
+
+	/**
+	 * @param weight
+	 *      The number of systems this one stands for
+	 */
+	void addSystem(float x, float y, float z, float weight) {
+		int alpha = 255 - Math.round((Math.abs(y - this.slabY) / this.halfHeight) * 255);
+		if (alpha > 0) {
+			this.add(x, z, NO_CLASS, alpha, weight);
+		}
+	}
+
+	/**
+	 * @param starClass
+	 *      {@link StarClass#ordinal()}
+	 * @param weight
+	 *      The number of stars this one stands for
+	 */
+	void addStar(float x, float y, float z, int starClass, float weight) {
+		int alpha = 255 - Math.round((Math.abs(y - this.slabY) / this.halfHeight) * 127);
+		if (alpha > 0) {
+			this.add(x, z, starClass, alpha, weight);
+		}
+	}
+
+	private void add(float x, float z, int starClass, int alpha, float weight) {
+		int px = Math.round((x - this.xmin) / this.lyPerPixel);
+		int py = Math.round((this.zmax - z) / this.lyPerPixel);
+
+		if (this.isLevelOfDetail()) {
+			if (px >= 0 && px < this.size && py >= 0 && py < this.size) {
+				this.bin(py * this.size + px, starClass, alpha, weight);
+			}
+		} else {
+			// Points in the margin around the tile are kept, they may reach into it with their pixel size
+			int pixel = px >= -this.psize && px < this.size + this.psize && py >= -this.psize && py < this.size + this.psize ? (py + this.psize) * (this.size + 2 * this.psize) + (px + this.psize) : -1;
+			if (pixel < 0) {
+				return;
+			}
+			if (this.nPoints == this.pointPixels.length) {
+				int capacity = this.nPoints * 2;
+				this.pointPixels = Arrays.copyOf(this.pointPixels, capacity);
+				this.pointClasses = Arrays.copyOf(this.pointClasses, capacity);
+				this.pointAlphas = Arrays.copyOf(this.pointAlphas, capacity);
+			}
+			this.pointPixels[this.nPoints] = pixel;
+			this.pointClasses[this.nPoints] = starClass;
+			this.pointAlphas[this.nPoints] = alpha;
+			this.nPoints++;
+		}
+	}
+
+	private void bin(int pixel, int starClass, int alpha, float pointWeight) {
+		float weight = alpha / 255f * pointWeight;
+		if (starClass == NO_CLASS) {
+			this.systemWeights[pixel] += weight;
+		} else {
+			this.starWeights[pixel] += weight;
+
+			int idx = pixel * N_COLOR_GROUPS + COLOR_GROUPS[starClass];
+			if (this.colorGroupCounts[idx] < Character.MAX_VALUE) {
+				this.colorGroupCounts[idx]++;
+			}
+		}
+	}
+
+	/**
+	 * @return
+	 *      The star class ordinal representing the most frequent color group of the bin, {@link #NO_CLASS} if it has no
+	 *      stars
+	 */
+	private int dominantClass(int pixel) {
+		int dominantGroup = -1;
+		int maxCount = 0;
+		for (int group = 0, idx = pixel * N_COLOR_GROUPS; group < N_COLOR_GROUPS; group++, idx++) {
+			if (this.colorGroupCounts[idx] > maxCount) {
+				maxCount = this.colorGroupCounts[idx];
+				dominantGroup = group;
+			}
+		}
+		return dominantGroup < 0 ? NO_CLASS : COLOR_GROUP_CLASSES[dominantGroup];
+	}
+
+	/**
+	 * @return
+	 *      A new {@link BufferedImage#TYPE_INT_ARGB_PRE} image of the tile. Pixels are written directly into its backing
+	 *      array, there is not a single {@link java.awt.Graphics} call and no allocation per point.
+	 */
+	BufferedImage paint() {
+		BufferedImage image = new BufferedImage(this.size, this.size, BufferedImage.TYPE_INT_ARGB_PRE);
+		int[] argbs = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		if (this.isLevelOfDetail()) {
+			this.paintDensity(argbs);
+		} else {
+			this.paintPoints(argbs);
+		}
+		return image;
+	}
+
+	/**
+	 * Systems first, then stars on top, as before. Each point is a square of the pixel size, blended over what has
+	 * already been painted.
+	 */
+	private void paintPoints(int[] argbs) {
+		final int paddedSize = this.size + 2 * this.psize;
+		final int poffset = (this.psize - 1) / 2;
+
+		for (int pass = 0; pass < 2; pass++) {
+			for (int i = 0; i < this.nPoints; i++) {
+				int starClass = this.pointClasses[i];
+				if ((pass == 0) != (starClass == NO_CLASS)) {
+					continue;
+				}
+				final int argb = ARGB_LUT[lutIndex(starClass, this.pointAlphas[i])];
+				final int left = this.pointPixels[i] % paddedSize - this.psize - poffset;
+				final int top = this.pointPixels[i] / paddedSize - this.psize - poffset;
+				final int x0 = Math.max(0, left);
+				final int y0 = Math.max(0, top);
+				final int x1 = Math.min(this.size, left + this.psize);
+				final int y1 = Math.min(this.size, top + this.psize);
+				for (int py = y0; py < y1; py++) {
+					for (int pixel = py * this.size + x0, end = py * this.size + x1; pixel < end; pixel++) {
+						argbs[pixel] = blend(argb, argbs[pixel]);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Brightness grows logarithmically with the weighted count, relative to the weighted count of a bin at
+	 * {@link #REFERENCE_DENSITY}. The reference only depends on the scale and visible height, so it is the same for all
+	 * tiles of a view. Bins with stars get the color of their dominant color group, bins with systems only are gray.
+	 */
+	private void paintDensity(int[] argbs) {
+		final int n = this.size * this.size;
+		// Column of one pixel through the slab, the weight falls off linearly to 0 at its top and bottom
+		final float referenceWeight = Math.max(1f, REFERENCE_DENSITY * this.lyPerPixel * this.lyPerPixel * 2 * this.halfHeight * 0.5f);
+		final double logMaxWeight = Math.log1p(referenceWeight);
+
+		for (int pixel = 0; pixel < n; pixel++) {
+			float weight = this.systemWeights[pixel] + this.starWeights[pixel];
+			if (weight > 0f) {
+				int alpha = Math.min(255, 64 + (int) Math.round(191 * Math.log1p(weight) / logMaxWeight));
+				argbs[pixel] = ARGB_LUT[lutIndex(this.dominantClass(pixel), alpha)];
+			}
+		}
+	}
+
+	private static int lutIndex(int starClass, int alpha) {
+		return (starClass + 1) * 256 + alpha;
+	}
+
+	/**
+	 * Premultiplied ARGB of every star class (and of {@link #NO_CLASS}) at every alpha, see {@link #lutIndex(int, int)}
+	 */
+	private static int[] buildArgbLut() {
+		int[] lut = new int[(STAR_CLASSES.length + 1) * 256];
+		for (int starClass = NO_CLASS; starClass < STAR_CLASSES.length; starClass++) {
+			Color color = starClass == NO_CLASS ? null : StarUtil.starClassToColor(STAR_CLASSES[starClass]);
+			int r = color == null ? SYSTEM_GRAY : color.getRed();
+			int g = color == null ? SYSTEM_GRAY : color.getGreen();
+			int b = color == null ? SYSTEM_GRAY : color.getBlue();
+			for (int alpha = 0; alpha < 256; alpha++) {
+				lut[lutIndex(starClass, alpha)] = alpha << 24 | ((r * alpha + 127) / 255) << 16 | ((g * alpha + 127) / 255) << 8 | ((b * alpha + 127) / 255);
+			}
+		}
+		return lut;
+	}
+
+	/**
+	 * @return
+	 *      The color group of each star class ordinal: Star classes with the same color share a group, the groups are
+	 *      numbered in the order of their first star class
+	 */
+	private static int[] buildColorGroups() {
+		int[] groups = new int[STAR_CLASSES.length];
+		List<Color> groupColors = new ArrayList<>();
+		for (int starClass = 0; starClass < STAR_CLASSES.length; starClass++) {
+			Color color = StarUtil.starClassToColor(STAR_CLASSES[starClass]);
+			int group = groupColors.indexOf(color);
+			if (group < 0) {
+				group = groupColors.size();
+				groupColors.add(color);
+			}
+			groups[starClass] = group;
+		}
+		return groups;
+	}
+
+	private static int[] buildColorGroupClasses() {
+		int[] classes = new int[N_COLOR_GROUPS];
+		Arrays.fill(classes, NO_CLASS);
+		for (int starClass = STAR_CLASSES.length - 1; starClass >= 0; starClass--) {
+			classes[COLOR_GROUPS[starClass]] = starClass;
+		}
+		return classes;
+	}
+
+	/**
+	 * Porter-Duff source over, both premultiplied
+	 */
+	private static int blend(int src, int dst) {
+		final int inverseAlpha = 255 - (src >>> 24);
+		if (inverseAlpha == 0 || dst == 0) {
+			return src;
+		}
+		int a = (src >>> 24) + ((dst >>> 24) * inverseAlpha + 127) / 255;
+		int r = (src >>> 16 & 0xFF) + ((dst >>> 16 & 0xFF) * inverseAlpha + 127) / 255;
+		int g = (src >>> 8 & 0xFF) + ((dst >>> 8 & 0xFF) * inverseAlpha + 127) / 255;
+		int b = (src & 0xFF) + ((dst & 0xFF) * inverseAlpha + 127) / 255;
+		return a << 24 | r << 16 | g << 8 | b;
+	}
+
+}
@@ -0,0 +1,249 @@
+package borg.ed.sidepanel.gui;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Renders the star field of the {@link DiscoveryPanel.Area map} on a background thread, so the EDT never waits for the
+ * backend. The EDT only draws the latest completed frame, placed where it belongs in the current view if the view has
+ * changed since. A render is abandoned between two tiles as soon as a different view is requested, and requests for
+ * the view which is already being rendered are ignored.
+ *
+ * <p>Frames are double buffered: The worker renders into the back buffer and swaps it with the front buffer once the
+ * frame is complete, the EDT only ever draws the front buffer.</p>
+ *
+ * @author <a href="mailto:b.guenther@xsite.de">Boris Guenther</a>
+ */
+public class StarMapRenderer {
+
+	static final Logger logger = LoggerFactory.getLogger(StarMapRenderer.class);
+
+	private final StarMapTileCache tileCache;
+
+	/**
+	 * Called on the worker thread whenever a new frame is available
+	 */
+	private final Runnable frameListener;
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "StarMapRender");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * The most recently requested view, guarded by this
+	 */
+	private View requestedView = null;
+
+	private boolean scheduled = false;
+
+	/**
+	 * Guards the swap of the buffers
+	 */
+	private final Object bufferLock = new Object();
+
+	private Frame front = null;
+
+	private BufferedImage back = null;
+
+	public StarMapRenderer(StarMapTileCache tileCache, Runnable frameListener) {
+		this.tileCache = tileCache;
+		this.frameListener = frameListener;
+	}
+
+	/**
+	 * Draws the latest completed frame, scaled and moved to the given view
+	 *
+	 * @return
+	 *      <code>true</code> if the drawn frame has been rendered for exactly this view
+	 */
+	public boolean drawLatestFrame(Graphics g, View view) {
+		synchronized (this.bufferLock) {
+			Frame frame = this.front;
+			if (frame == null) {
+				return false;
+			}
+
+			float scale = frame.view.lyPerPixel / view.lyPerPixel;
+			int x = Math.round((frame.view.xfrom - view.xfrom) / view.lyPerPixel);
+			int y = Math.round((view.zto - frame.view.zto) / view.lyPerPixel);
+			g.drawImage(frame.image, x, y, Math.round(frame.view.width * scale), Math.round(frame.view.height * scale), null);
+
+			return frame.view.equals(view);
+		}
+	}
+
+	/**
+	 * Starts rendering the given view in the background, unless it is already being rendered
+	 */
+	public synchronized void request(View view) {
+		if (view.width <= 0 || view.height <= 0 || view.equals(this.requestedView)) {
+			return;
+		}
+		this.requestedView = view;
+		if (!this.scheduled) {
+			this.scheduled = true;
+			this.executor.execute(this::renderRequestedViews);
+		}
+	}
+
+	public void shutdown() {
+		this.executor.shutdownNow();
+	}
+
+	private void renderRequestedViews() {
+		while (true) {
+			View view;
+			synchronized (this) {
+				view = this.requestedView;
+				synchronized (this.bufferLock) {
+					if (view == null || (this.front != null && this.front.view.equals(view))) {
+						this.scheduled = false;
+						return;
+					}
+				}
+			}
+
+			try {
+				long start = System.currentTimeMillis();
+				if (this.render(view)) {
+					logger.debug("Rendered map frame in " + (System.currentTimeMillis() - start) + " ms");
+					this.frameListener.run();
+				}
+			} catch (Exception e) {
+				logger.error("Failed to render the map", e);
+				synchronized (this) {
+					if (this.requestedView == view) {
+						this.requestedView = null; // Try again with the next request
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return
+	 *      <code>false</code> if the render has been abandoned because a different view has been requested
+	 */
+	private boolean render(View view) {
+		BufferedImage image = this.back;
+		if (image == null || image.getWidth() != view.width || image.getHeight() != view.height) {
+			image = new BufferedImage(view.width, view.height, BufferedImage.TYPE_INT_ARGB);
+		}
+
+		Graphics2D g = image.createGraphics();
+		try {
+			g.setComposite(AlphaComposite.Clear);
+			g.fillRect(0, 0, view.width, view.height);
+			g.setComposite(AlphaComposite.SrcOver);
+
+			// Tiles of the nearest zoom level, scaled down to the exact scale of the view
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			final int zoomLevel = StarMapTileCache.TileKey.zoomLevelOf(view.lyPerPixel);
+			final float tileLy = StarMapTileCache.TILE_SIZE * StarMapTileCache.TileKey.lyPerPixelOf(zoomLevel);
+			final float xto = view.xfrom + view.width * view.lyPerPixel;
+			final float zfrom = view.zto - view.height * view.lyPerPixel;
+			for (int tx = (int) Math.floor(view.xfrom / tileLy); tx <= (int) Math.floor(xto / tileLy); tx++) {
+				for (int tz = (int) Math.floor(zfrom / tileLy); tz <= (int) Math.floor(view.zto / tileLy); tz++) {
+					if (!this.isRequested(view)) {
+						return false;
+					}
+					BufferedImage tile = this.tileCache.getOrRender(new StarMapTileCache.TileKey(zoomLevel, view.ysize, view.psize, view.slab, tx, tz));
+					// Both edges rounded the same way as those of the neighbours, so there are no gaps between tiles
+					int x0 = Math.round((tx * tileLy - view.xfrom) / view.lyPerPixel);
+					int x1 = Math.round(((tx + 1) * tileLy - view.xfrom) / view.lyPerPixel);
+					int y0 = Math.round((view.zto - (tz + 1) * tileLy) / view.lyPerPixel);
+					int y1 = Math.round((view.zto - tz * tileLy) / view.lyPerPixel);
+					g.drawImage(tile, x0, y0, x1 - x0, y1 - y0, null);
+				}
+			}
+		} finally {
+			g.dispose();
+		}
+
+		synchronized (this.bufferLock) {
+			Frame previous = this.front;
+			this.front = new Frame(image, view);
+			this.back = previous == null ? null : previous.image;
+		}
+		return true;
+	}
+
+	private synchronized boolean isRequested(View view) {
+		return view.equals(this.requestedView) && !Thread.currentThread().isInterrupted();
+	}
+
+	/**
+	 * What the map shows: Its top left corner in the galaxy, its scale and size, and what the star field tiles are keyed
+	 * by. The visible height is expected to be snapped by {@link StarMapTileCache.TileKey#snapYsize(float)}.
+	 */
+	public static final class View {
+
+		private final float xfrom;
+		private final float zto;
+		private final float lyPerPixel;
+		private final float ysize;
+		private final int psize;
+		private final int slab;
+		private final int width;
+		private final int height;
+
+		public View(float xfrom, float zto, float lyPerPixel, float ysize, int psize, int slab, int width, int height) {
+			this.xfrom = xfrom;
+			this.zto = zto;
+			this.lyPerPixel = lyPerPixel;
+			this.ysize = ysize;
+			this.psize = psize;
+			this.slab = slab;
+			this.width = width;
+			this.height = height;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			} else if (!(obj instanceof View)) {
+				return false;
+			}
+			View other = (View) obj;
+			return Float.floatToIntBits(this.xfrom) == Float.floatToIntBits(other.xfrom) && Float.floatToIntBits(this.zto) == Float.floatToIntBits(other.zto)
+					&& Float.floatToIntBits(this.lyPerPixel) == Float.floatToIntBits(other.lyPerPixel) && Float.floatToIntBits(this.ysize) == Float.floatToIntBits(other.ysize)
+					&& this.psize == other.psize && this.slab == other.slab && this.width == other.width && this.height == other.height;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = Float.floatToIntBits(this.xfrom);
+			result = 31 * result + Float.floatToIntBits(this.zto);
+			result = 31 * result + Float.floatToIntBits(this.lyPerPixel);
+			result = 31 * result + this.slab;
+			result = 31 * result + this.width;
+			result = 31 * result + this.height;
+			return result;
+		}
+
+	}
+
+	private static class Frame {
+
+		private final BufferedImage image;
+		private final View view;
+
+		Frame(BufferedImage image, View view) {
+			this.image = image;
+			this.view = view;
+		}
+
+	}
+
+}
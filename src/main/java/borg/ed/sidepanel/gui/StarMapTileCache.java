@@ -0,0 +1,258 @@
+package borg.ed.sidepanel.gui;
+
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import borg.ed.sidepanel.galaxy.StarFieldPointCache;
+
+/**
+ * Renders the star field of the {@link DiscoveryPanel.Area map} into square image tiles and keeps them, so a repaint
+ * only has to blit images. The points come from a {@link StarFieldPointCache}, so rendering a tile again (e.g. for
+ * another slab) usually does not have to query the galaxy at all.
+ *
+ * <p>Tiles form a grid anchored at the galactic origin, {@link #TILE_SIZE} pixels wide at the scale of their zoom
+ * level. Zoom levels are {@link #LEVELS_PER_OCTAVE} steps per doubling of the scale, tiles of the level at or just
+ * below the scale of the map are scaled down slightly when drawn. The visible height is snapped to multiples of
+ * {@link #YSIZE_STEP}, so resizing the window does not change the key of every tile. The brightness of a star depends
+ * on its vertical distance to the commander, so the commander's Y is snapped to slabs of 1/{@link #SLABS_PER_VIEW} of
+ * the visible height and tiles are rendered for the center of the slab. The least recently
+ * used tiles are dropped once all tiles together take more than {@link #MAX_BYTES}, and tiles are rendered again after
+ * {@link #MAX_TILE_AGE_MILLIS} to pick up new data.</p>
+ *
+ * @author <a href="mailto:b.guenther@xsite.de">Boris Guenther</a>
+ */
+public class StarMapTileCache {
+
+	static final Logger logger = LoggerFactory.getLogger(StarMapTileCache.class);
+
+	public static final int TILE_SIZE = 256; // px
+
+	public static final int LEVELS_PER_OCTAVE = 4;
+
+	public static final float YSIZE_STEP = 100f; // Ly
+
+	public static final int SLABS_PER_VIEW = 8;
+
+	public static final long MAX_BYTES = 128L * 1024L * 1024L;
+
+	public static final long MAX_TILE_AGE_MILLIS = 30 * 60 * 1000L;
+
+	private static final long BYTES_PER_TILE = 4L * TILE_SIZE * TILE_SIZE;
+
+	private final StarFieldPointCache pointCache;
+
+	/**
+	 * Map&lt;key, tile&gt; in access order
+	 */
+	private final LinkedHashMap<TileKey, Tile> tiles = new LinkedHashMap<>(256, 0.75f, /* accessOrder = */ true);
+
+	public StarMapTileCache(StarFieldPointCache pointCache) {
+		this.pointCache = pointCache;
+	}
+
+	/**
+	 * @return
+	 *      The cached tile, or <code>null</code> if it has not been rendered yet or has expired
+	 */
+	public synchronized BufferedImage get(TileKey key) {
+		Tile tile = this.tiles.get(key);
+		if (tile != null && System.currentTimeMillis() - tile.rendered > MAX_TILE_AGE_MILLIS) {
+			this.tiles.remove(key);
+			tile = null;
+		}
+		return tile == null ? null : tile.image;
+	}
+
+	public synchronized void put(TileKey key, BufferedImage image) {
+		this.tiles.put(key, new Tile(image));
+		for (Iterator<TileKey> it = this.tiles.keySet().iterator(); this.tiles.size() * BYTES_PER_TILE > MAX_BYTES && it.hasNext();) {
+			if (!it.next().equals(key)) {
+				it.remove();
+			}
+		}
+	}
+
+	public BufferedImage getOrRender(TileKey key) {
+		BufferedImage image = this.get(key);
+		if (image == null) {
+			image = this.render(key);
+			this.put(key, image);
+		}
+		return image;
+	}
+
+	public synchronized void clear() {
+		this.tiles.clear();
+	}
+
+	public synchronized int size() {
+		return this.tiles.size();
+	}
+
+	/**
+	 * Paints the known systems and entry stars of the tile (plus a margin for the pixel size), either
+	 * one by one or as a density heatmap, see {@link StarFieldRaster}
+	 */
+	public BufferedImage render(TileKey key) {
+		final float lyPerPixel = key.getLyPerPixel();
+		final float tileLy = key.getTileLy();
+		final float xmin = key.getTx() * tileLy;
+		final float zmax = (key.getTz() + 1) * tileLy;
+		final float margin = key.getPsize() * lyPerPixel;
+		final float halfHeight = key.getYsize() / 2;
+		final float slabY = key.getSlabY();
+
+		long start = System.currentTimeMillis();
+		StarFieldRaster raster = new StarFieldRaster(TILE_SIZE, xmin, zmax, lyPerPixel, slabY, halfHeight, key.getPsize());
+
+		// Known systems and entry stars
+		this.pointCache.forEachWithin(xmin - margin, xmin + tileLy + margin, slabY - halfHeight, slabY + halfHeight, zmax - tileLy - margin, zmax + margin,
+				(x, y, z, starClass, weight) -> {
+					if (starClass == StarFieldPointCache.NO_STAR_CLASS) {
+						raster.addSystem(x, y, z, weight);
+					} else {
+						raster.addStar(x, y, z, starClass, weight);
+					}
+				});
+
+		BufferedImage image = raster.paint();
+		logger.trace("Rendered " + key + (raster.isLevelOfDetail() ? " as density" : "") + " in " + (System.currentTimeMillis() - start) + " ms");
+
+		return image;
+	}
+
+	/**
+	 * Identifies a tile: Zoom level, visible height and pixel size of the map, the Y-slab and the position in the tile
+	 * grid
+	 */
+	public static final class TileKey {
+
+		private final int zoomLevel;
+		private final float ysize;
+		private final int psize;
+		private final int slab;
+		private final int tx;
+		private final int tz;
+
+		/**
+		 * @param ysize
+		 *      Visible height, already snapped by {@link #snapYsize(float)}
+		 */
+		public TileKey(int zoomLevel, float ysize, int psize, int slab, int tx, int tz) {
+			this.zoomLevel = zoomLevel;
+			this.ysize = ysize;
+			this.psize = psize;
+			this.slab = slab;
+			this.tx = tx;
+			this.tz = tz;
+		}
+
+		/**
+		 * @return
+		 *      The slab containing the given Y
+		 */
+		public static int slabOf(float y, float ysize) {
+			return Math.round(y / (ysize / SLABS_PER_VIEW));
+		}
+
+		/**
+		 * @return
+		 *      The finest zoom level whose scale is not finer than the given one, so its tiles are scaled down when drawn
+		 */
+		public static int zoomLevelOf(float lyPerPixel) {
+			return (int) Math.floor(Math.log(lyPerPixel) / Math.log(2) * LEVELS_PER_OCTAVE + 1e-4);
+		}
+
+		public static float lyPerPixelOf(int zoomLevel) {
+			return (float) Math.pow(2, (double) zoomLevel / LEVELS_PER_OCTAVE);
+		}
+
+		/**
+		 * @return
+		 *      The given visible height rounded to a multiple of {@link #YSIZE_STEP}
+		 */
+		public static float snapYsize(float ysize) {
+			return Math.max(1, Math.round(ysize / YSIZE_STEP)) * YSIZE_STEP;
+		}
+
+		public int getZoomLevel() {
+			return this.zoomLevel;
+		}
+
+		public float getLyPerPixel() {
+			return lyPerPixelOf(this.zoomLevel);
+		}
+
+		public float getYsize() {
+			return this.ysize;
+		}
+
+		public int getPsize() {
+			return this.psize;
+		}
+
+		public int getSlab() {
+			return this.slab;
+		}
+
+		public int getTx() {
+			return this.tx;
+		}
+
+		public int getTz() {
+			return this.tz;
+		}
+
+		public float getTileLy() {
+			return TILE_SIZE * this.getLyPerPixel();
+		}
+
+		public float getSlabY() {
+			return this.slab * (this.ysize / SLABS_PER_VIEW);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			} else if (!(obj instanceof TileKey)) {
+				return false;
+			}
+			TileKey other = (TileKey) obj;
+			return this.zoomLevel == other.zoomLevel && Float.floatToIntBits(this.ysize) == Float.floatToIntBits(other.ysize) && this.psize == other.psize && this.slab == other.slab && this.tx == other.tx && this.tz == other.tz;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = this.zoomLevel;
+			result = 31 * result + Float.floatToIntBits(this.ysize);
+			result = 31 * result + this.psize;
+			result = 31 * result + this.slab;
+			result = 31 * result + this.tx;
+			result = 31 * result + this.tz;
+			return result;
+		}
+
+		@Override
+		public String toString() {
+			return "TileKey[" + this.getLyPerPixel() + " Ly/px, slab " + this.slab + ", " + this.tx + "/" + this.tz + "]";
+		}
+
+	}
+
+	private static class Tile {
+
+		private final BufferedImage image;
+		private final long rendered = System.currentTimeMillis();
+
+		Tile(BufferedImage image) {
+			this.image = image;
+		}
+
+	}
+
+}
@@ -0,0 +1,15 @@
+package borg.ed.sidepanel.journal;
+
+import borg.ed.galaxy.journal.events.AbstractJournalEvent;
+
+/**
+ * Reacts to journal events of a single type, see {@link JournalEventHandlerRegistry}.
+ *
+ * @author <a href="mailto:b.guenther@xsite.de">Boris Guenther</a>
+ */
+@FunctionalInterface
+public interface JournalEventHandler<E extends AbstractJournalEvent> {
+
+	void handle(E event) throws Exception;
+
+}
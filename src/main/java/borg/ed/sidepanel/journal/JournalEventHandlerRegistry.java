@@ -0,0 +1,160 @@
+package borg.ed.sidepanel.journal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import borg.ed.galaxy.journal.events.AbstractJournalEvent;
+import lombok.Getter;
+
+/**
+ * Maps journal event classes to the handlers interested in them. A handler registered for a class also receives
+ * events of its subclasses. The handlers of each concrete event class are resolved once and cached, so dispatching is
+ * a single hash lookup no matter how many event types and handlers are registered.
+ *
+ * <p>Every handler counts its invocations and the nanoseconds spent in it, which shows which handler dominates replay
+ * and live update time.</p>
+ *
+ * @author <a href="mailto:b.guenther@xsite.de">Boris Guenther</a>
+ */
+public class JournalEventHandlerRegistry {
+
+	static final Logger logger = LoggerFactory.getLogger(JournalEventHandlerRegistry.class);
+
+	private static final Registration[] NO_REGISTRATIONS = new Registration[0];
+
+	/**
+	 * All registrations in registration order, replaced on every change
+	 */
+	private volatile List<Registration> registrations = Collections.emptyList();
+
+	/**
+	 * Map&lt;concreteEventClass, registrations&gt;, cleared on every change
+	 */
+	private final Map<Class<?>, Registration[]> resolvedRegistrations = new ConcurrentHashMap<>();
+
+	/**
+	 * @param eventClass
+	 *      Events of this class and its subclasses are passed to the handler
+	 * @param name
+	 *      Shown in the statistics, e.g. "CommanderData.FSDJump"
+	 */
+	public synchronized <E extends AbstractJournalEvent> void register(Class<E> eventClass, String name, JournalEventHandler<? super E> handler) {
+		List<Registration> newRegistrations = new ArrayList<>(this.registrations);
+		newRegistrations.add(new Registration(eventClass, name, handler));
+		this.registrations = Collections.unmodifiableList(newRegistrations);
+		this.resolvedRegistrations.clear();
+	}
+
+	public synchronized void unregister(JournalEventHandler<?> handler) {
+		List<Registration> newRegistrations = new ArrayList<>(this.registrations);
+		if (newRegistrations.removeIf(r -> r.handler == handler)) {
+			this.registrations = Collections.unmodifiableList(newRegistrations);
+			this.resolvedRegistrations.clear();
+		}
+	}
+
+	/**
+	 * Passes the event to all handlers registered for its class or one of its superclasses, in registration order. A
+	 * failing handler is logged and does not keep the others from running.
+	 *
+	 * @return
+	 *      <code>true</code> if at least one handler was interested in the event
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public boolean dispatch(AbstractJournalEvent event) {
+		Registration[] handlers = this.resolvedRegistrations.computeIfAbsent(event.getClass(), this::resolve);
+
+		for (Registration registration : handlers) {
+			long start = System.nanoTime();
+			try {
+				((JournalEventHandler) registration.handler).handle(event);
+			} catch (Exception e) {
+				logger.error("Handler " + registration.name + " failed on " + event, e);
+			} finally {
+				registration.nanos.add(System.nanoTime() - start);
+				registration.invocations.increment();
+			}
+		}
+
+		return handlers.length > 0;
+	}
+
+	/**
+	 * @return
+	 *      One entry per registered handler, the most expensive first
+	 */
+	public List<HandlerStatistics> getStatistics() {
+		List<HandlerStatistics> result = new ArrayList<>();
+		for (Registration registration : this.registrations) {
+			result.add(new HandlerStatistics(registration.name, registration.eventClass, registration.invocations.sum(), registration.nanos.sum()));
+		}
+		result.sort(Comparator.comparingLong(HandlerStatistics::getNanos).reversed());
+		return result;
+	}
+
+	public void logStatistics() {
+		if (logger.isInfoEnabled()) {
+			StringBuilder sb = new StringBuilder("Journal event handler statistics:");
+			for (HandlerStatistics statistics : this.getStatistics()) {
+				sb.append(String.format("%n\t%-40s %10d calls %10.1f ms %10.1f us/call", statistics.getName(), statistics.getInvocations(), statistics.getNanos() / 1e6,
+						statistics.getInvocations() == 0 ? 0.0 : statistics.getNanos() / 1e3 / statistics.getInvocations()));
+			}
+			logger.info(sb.toString());
+		}
+	}
+
+	private Registration[] resolve(Class<?> concreteEventClass) {
+		List<Registration> result = new ArrayList<>();
+		for (Registration registration : this.registrations) {
+			if (registration.eventClass.isAssignableFrom(concreteEventClass)) {
+				result.add(registration);
+			}
+		}
+		return result.isEmpty() ? NO_REGISTRATIONS : result.toArray(new Registration[result.size()]);
+	}
+
+	private static class Registration {
+
+		private final Class<?> eventClass;
+		private final String name;
+		private final JournalEventHandler<?> handler;
+		private final LongAdder invocations = new LongAdder();
+		private final LongAdder nanos = new LongAdder();
+
+		Registration(Class<?> eventClass, String name, JournalEventHandler<?> handler) {
+			this.eventClass = eventClass;
+			this.name = name;
+			this.handler = handler;
+		}
+
+	}
+
+	/**
+	 * Point-in-time copy of the counters of a single handler
+	 */
+	@Getter
+	public static class HandlerStatistics {
+
+		private final String name;
+		private final Class<?> eventClass;
+		private final long invocations;
+		private final long nanos;
+
+		HandlerStatistics(String name, Class<?> eventClass, long invocations, long nanos) {
+			this.name = name;
+			this.eventClass = eventClass;
+			this.invocations = invocations;
+			this.nanos = nanos;
+		}
+
+	}
+
+}
@@ -0,0 +1,66 @@
+package borg.ed.sidepanel.journal;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * What {@link JournalIndex} knows about a single journal file without having to open it again.
+ *
+ * @author <a href="mailto:b.guenther@xsite.de">Boris Guenther</a>
+ */
+@Getter
+@Setter
+public class JournalFileInfo {
+
+	private String fileName = null;
+
+	/**
+	 * The timestamp encoded in the file name, e.g. 171014123456 for Journal.171014123456.01.log
+	 */
+	private long fileNameTimestamp = 0L;
+
+	private long size = 0L;
+
+	private long lastModified = 0L;
+
+	/**
+	 * All commanders who loaded a game in this file, in order of their first appearance
+	 */
+	private Set<String> commanders = new LinkedHashSet<>();
+
+	/**
+	 * The commander who was logged in at the end of the file
+	 */
+	private String lastCommander = null;
+
+	/**
+	 * Epoch millis of the first event, <code>null</code> if the file has no events
+	 */
+	private Long firstEventTimestamp = null;
+
+	/**
+	 * Epoch millis of the last event, <code>null</code> if the file has no events
+	 */
+	private Long lastEventTimestamp = null;
+
+	private int lineCount = 0;
+
+	/**
+	 * Byte offset up to which the file has been indexed, so a growing file only needs its new lines to be scanned
+	 */
+	private long indexedOffset = 0L;
+
+	/**
+	 * {@link String#hashCode()} of the first line, which is the file header with the time the file was started. Used to
+	 * tell a file which has been appended to from one which has been replaced.
+	 */
+	private int firstLineHash = 0;
+
+	public boolean containsCommander(String commanderName) {
+		return this.commanders.contains(commanderName);
+	}
+
+}
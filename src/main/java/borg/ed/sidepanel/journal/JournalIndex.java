@@ -0,0 +1,345 @@
+package borg.ed.sidepanel.journal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import borg.ed.galaxy.journal.JournalEventReader;
+import borg.ed.galaxy.journal.events.AbstractJournalEvent;
+import borg.ed.galaxy.journal.events.LoadGameEvent;
+
+/**
+ * Persistent manifest of the journal directory. For each journal file it remembers size and modification time,
+ * which commanders appear in it, the time span it covers and its line count. This allows to pick the current commander
+ * and to skip or order journal files without opening them.
+ *
+ * <p>{@link #update()} only scans files which are new or have changed since the last update. Files which only grew
+ * are scanned from where indexing stopped the last time. A file which has the same size but a different modification
+ * time, or whose first line has changed, has been replaced and is scanned from the start.</p>
+ *
+ * @author <a href="mailto:b.guenther@xsite.de">Boris Guenther</a>
+ */
+public class JournalIndex {
+
+	static final Logger logger = LoggerFactory.getLogger(JournalIndex.class);
+
+	private static final int MAGIC = 0x45444a49; // "EDJI"
+
+	/**
+	 * Increase whenever the layout written by {@link #save()} changes
+	 */
+	public static final int VERSION = 2;
+
+	private static final String TIMESTAMP_PREFIX = "\"timestamp\":\"";
+
+	private final File journalDir;
+
+	private final File indexFile;
+
+	/**
+	 * Map&lt;fileName, info&gt;
+	 */
+	private final Map<String, JournalFileInfo> infoByFileName = new HashMap<>();
+
+	/**
+	 * Sorted by the timestamp in the file name, oldest first
+	 */
+	private List<JournalFileInfo> sortedInfos = new ArrayList<>();
+
+	public JournalIndex(File journalDir, File indexFile) {
+		this.journalDir = journalDir;
+		this.indexFile = indexFile;
+
+		this.load();
+	}
+
+	/**
+	 * Brings the index up to date with the journal directory and saves it if anything changed.
+	 */
+	public synchronized void update() {
+		File[] journalFiles = this.journalDir.listFiles((dir, name) -> isJournalFileName(name));
+		if (journalFiles == null) {
+			logger.warn("Cannot list " + this.journalDir);
+			return;
+		}
+
+		boolean changed = false;
+
+		Map<String, File> filesByName = new HashMap<>();
+		for (File journalFile : journalFiles) {
+			filesByName.put(journalFile.getName(), journalFile);
+		}
+		if (this.infoByFileName.keySet().retainAll(filesByName.keySet())) {
+			changed = true;
+		}
+
+		for (File journalFile : journalFiles) {
+			JournalFileInfo info = this.infoByFileName.get(journalFile.getName());
+			long size = journalFile.length();
+			long lastModified = journalFile.lastModified();
+
+			if (info != null && info.getSize() == size && info.getLastModified() == lastModified) {
+				continue; // Unchanged
+			}
+
+			if (info == null || !this.isAppendedTo(journalFile, info, size)) {
+				info = new JournalFileInfo();
+				info.setFileName(journalFile.getName());
+				info.setFileNameTimestamp(parseFileNameTimestamp(journalFile.getName()));
+			}
+
+			try {
+				this.scan(journalFile, info);
+				info.setSize(size);
+				info.setLastModified(lastModified);
+				this.infoByFileName.put(info.getFileName(), info);
+				changed = true;
+			} catch (IOException e) {
+				logger.error("Failed to index " + journalFile, e);
+			}
+		}
+
+		if (changed) {
+			this.sortedInfos = this.infoByFileName.values().stream().sorted(Comparator.comparingLong(JournalFileInfo::getFileNameTimestamp)).collect(Collectors.toList());
+			this.save();
+		}
+	}
+
+	public File getJournalDir() {
+		return this.journalDir;
+	}
+
+	public File getJournalFile(JournalFileInfo info) {
+		return new File(this.journalDir, info.getFileName());
+	}
+
+	/**
+	 * @return
+	 *      All indexed journal files, oldest first
+	 */
+	public synchronized List<JournalFileInfo> getJournalFileInfos() {
+		return Collections.unmodifiableList(this.sortedInfos);
+	}
+
+	/**
+	 * @return
+	 *      The journal files in which the given commander has loaded a game, oldest first
+	 */
+	public synchronized List<JournalFileInfo> getJournalFileInfos(String commanderName) {
+		return this.sortedInfos.stream().filter(info -> info.containsCommander(commanderName)).collect(Collectors.toList());
+	}
+
+	/**
+	 * @return
+	 *      The newest journal file, <code>null</code> if there are none
+	 */
+	public synchronized JournalFileInfo getNewestJournalFileInfo() {
+		return this.sortedInfos.isEmpty() ? null : this.sortedInfos.get(this.sortedInfos.size() - 1);
+	}
+
+	/**
+	 * @return
+	 *      The commander logged in at the end of the newest journal file which has a commander at all
+	 */
+	public synchronized String getCurrentCommanderName() {
+		for (int i = this.sortedInfos.size() - 1; i >= 0; i--) {
+			if (this.sortedInfos.get(i).getLastCommander() != null) {
+				return this.sortedInfos.get(i).getLastCommander();
+			}
+		}
+		return null;
+	}
+
+	public static boolean isJournalFileName(String fileName) {
+		return fileName.startsWith("Journal.") && fileName.endsWith(".log");
+	}
+
+	/**
+	 * @return
+	 *      The timestamp part of a journal file name, e.g. 171014123456 for Journal.171014123456.01.log
+	 */
+	public static long parseFileNameTimestamp(String fileName) {
+		int startIdx = fileName.indexOf(".") + 1;
+		int endIdx = fileName.indexOf(".", startIdx);
+		return Long.parseLong(fileName.substring(startIdx, endIdx));
+	}
+
+	/**
+	 * @return
+	 *      <code>true</code> if the file still starts with what has been indexed, so indexing can resume at the stored
+	 *      offset
+	 */
+	private boolean isAppendedTo(File journalFile, JournalFileInfo info, long size) {
+		if (size <= info.getSize()) {
+			return false; // Shrunk, or rewritten without growing
+		}
+		try (JournalLineReader lineReader = new JournalLineReader(journalFile)) {
+			String firstLine = lineReader.readLine();
+			return firstLine != null && firstLine.hashCode() == info.getFirstLineHash();
+		} catch (IOException e) {
+			logger.warn("Failed to read the first line of " + journalFile, e);
+			return false;
+		}
+	}
+
+	private void scan(File journalFile, JournalFileInfo info) throws IOException {
+		JournalEventReader reader = new JournalEventReader();
+
+		try (JournalLineReader lineReader = new JournalLineReader(journalFile, info.getIndexedOffset(), info.getLineCount())) {
+			String line = null;
+			while ((line = lineReader.readLine()) != null) {
+				if (lineReader.getLineNo() == 1) {
+					info.setFirstLineHash(line.hashCode());
+				}
+
+				Long timestamp = extractTimestamp(line);
+				if (timestamp != null) {
+					if (info.getFirstEventTimestamp() == null) {
+						info.setFirstEventTimestamp(timestamp);
+					}
+					info.setLastEventTimestamp(timestamp);
+				}
+
+				if (line.contains("\"LoadGame\"")) {
+					try {
+						AbstractJournalEvent event = reader.readLine(line);
+						if (event instanceof LoadGameEvent) {
+							String commander = ((LoadGameEvent) event).getCommander();
+							if (commander != null) {
+								info.getCommanders().add(commander);
+								info.setLastCommander(commander);
+							}
+						}
+					} catch (Exception e) {
+						logger.warn("Failed to read line " + lineReader.getLineNo() + " of " + journalFile + "\n\t" + line, e);
+					}
+				}
+			}
+
+			info.setLineCount(lineReader.getLineNo());
+			info.setIndexedOffset(lineReader.getPosition());
+		}
+	}
+
+	/**
+	 * Extracts the timestamp without parsing the whole JSON line
+	 */
+	private static Long extractTimestamp(String line) {
+		int startIdx = line.indexOf(TIMESTAMP_PREFIX);
+		if (startIdx < 0) {
+			return null;
+		}
+		startIdx += TIMESTAMP_PREFIX.length();
+		int endIdx = line.indexOf('"', startIdx);
+		if (endIdx < 0) {
+			return null;
+		}
+		try {
+			return Instant.parse(line.substring(startIdx, endIdx)).toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return null;
+		}
+	}
+
+	private void load() {
+		if (this.indexFile == null || !this.indexFile.exists()) {
+			return;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.indexFile)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				logger.info(this.indexFile + " is outdated, rebuilding the journal index");
+				return;
+			}
+
+			Map<String, JournalFileInfo> loaded = new HashMap<>();
+			int nFiles = in.readInt();
+			for (int i = 0; i < nFiles; i++) {
+				JournalFileInfo info = new JournalFileInfo();
+				info.setFileName(in.readUTF());
+				info.setFileNameTimestamp(in.readLong());
+				info.setSize(in.readLong());
+				info.setLastModified(in.readLong());
+				int nCommanders = in.readInt();
+				for (int c = 0; c < nCommanders; c++) {
+					info.getCommanders().add(in.readUTF());
+				}
+				info.setLastCommander(in.readBoolean() ? in.readUTF() : null);
+				info.setFirstEventTimestamp(in.readBoolean() ? in.readLong() : null);
+				info.setLastEventTimestamp(in.readBoolean() ? in.readLong() : null);
+				info.setLineCount(in.readInt());
+				info.setIndexedOffset(in.readLong());
+				info.setFirstLineHash(in.readInt());
+				loaded.put(info.getFileName(), info);
+			}
+
+			this.infoByFileName.putAll(loaded);
+			this.sortedInfos = this.infoByFileName.values().stream().sorted(Comparator.comparingLong(JournalFileInfo::getFileNameTimestamp)).collect(Collectors.toList());
+		} catch (IOException e) {
+			logger.warn("Failed to load " + this.indexFile + ", rebuilding the journal index", e);
+		}
+	}
+
+	private void save() {
+		if (this.indexFile == null) {
+			return;
+		}
+
+		File tmpFile = new File(this.indexFile.getParentFile(), this.indexFile.getName() + ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(this.sortedInfos.size());
+				for (JournalFileInfo info : this.sortedInfos) {
+					out.writeUTF(info.getFileName());
+					out.writeLong(info.getFileNameTimestamp());
+					out.writeLong(info.getSize());
+					out.writeLong(info.getLastModified());
+					out.writeInt(info.getCommanders().size());
+					for (String commander : info.getCommanders()) {
+						out.writeUTF(commander);
+					}
+					out.writeBoolean(info.getLastCommander() != null);
+					if (info.getLastCommander() != null) {
+						out.writeUTF(info.getLastCommander());
+					}
+					out.writeBoolean(info.getFirstEventTimestamp() != null);
+					if (info.getFirstEventTimestamp() != null) {
+						out.writeLong(info.getFirstEventTimestamp());
+					}
+					out.writeBoolean(info.getLastEventTimestamp() != null);
+					if (info.getLastEventTimestamp() != null) {
+						out.writeLong(info.getLastEventTimestamp());
+					}
+					out.writeInt(info.getLineCount());
+					out.writeLong(info.getIndexedOffset());
+					out.writeInt(info.getFirstLineHash());
+				}
+			}
+			Files.move(tmpFile.toPath(), this.indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			logger.error("Failed to save " + this.indexFile, e);
+		}
+	}
+
+}
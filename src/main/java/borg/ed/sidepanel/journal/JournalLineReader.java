@@ -0,0 +1,204 @@
+package borg.ed.sidepanel.journal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads a journal file line by line through a file channel, decoding UTF-8 with buffers that are reused for every line.
+ * Memory use is bounded by the longest line instead of the file size, and callers can simply stop reading once they
+ * found what they were looking for.
+ *
+ * <p>Only lines terminated by a line feed are returned. A trailing fragment is assumed to be still in the process of
+ * being written by the game and is left for a later read, so {@link #getPosition()} can always be used to resume.</p>
+ *
+ * @author <a href="mailto:b.guenther@xsite.de">Boris Guenther</a>
+ */
+public class JournalLineReader implements Closeable {
+
+	static final Logger logger = LoggerFactory.getLogger(JournalLineReader.class);
+
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+	private final FileChannel channel;
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+	private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+	private byte[] lineBytes = new byte[1024];
+	private ByteBuffer lineBuffer = ByteBuffer.wrap(this.lineBytes);
+	private CharBuffer charBuffer = CharBuffer.allocate(1024);
+	private int lineLength = 0;
+
+	private long position = 0L;
+	private long lineStartPosition = 0L;
+	private int lineNo = 0;
+	private boolean eof = false;
+
+	public JournalLineReader(File file) throws IOException {
+		this(file, 0L, 0);
+	}
+
+	/**
+	 * @param position
+	 *      Byte offset to start reading at, must be the start of a line
+	 * @param lineNo
+	 *      Number of lines before that offset, only used for reporting
+	 */
+	public JournalLineReader(File file, long position, int lineNo) throws IOException {
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		this.channel.position(position);
+		this.position = position;
+		this.lineNo = lineNo;
+		((Buffer) this.readBuffer).flip(); // Start empty
+
+		if (position == 0L) {
+			this.skipByteOrderMark();
+		}
+	}
+
+	/**
+	 * @return
+	 *      The next complete line without its line terminator, or <code>null</code> if there is none (yet)
+	 */
+	public String readLine() throws IOException {
+		this.lineLength = 0;
+		int consumed = 0;
+
+		while (true) {
+			if (!this.readBuffer.hasRemaining() && !this.fill()) {
+				// Incomplete line, re-read it next time
+				this.channel.position(this.position);
+				((Buffer) this.readBuffer).clear();
+				((Buffer) this.readBuffer).flip();
+				this.eof = false;
+				return null;
+			}
+
+			byte[] array = this.readBuffer.array();
+			int from = this.readBuffer.position();
+			int to = this.readBuffer.limit();
+			int idx = from;
+			while (idx < to && array[idx] != '\n') {
+				idx++;
+			}
+
+			this.appendToLine(array, from, idx - from);
+			consumed += idx - from;
+
+			if (idx < to) {
+				((Buffer) this.readBuffer).position(idx + 1);
+				consumed += 1;
+				break;
+			} else {
+				((Buffer) this.readBuffer).position(to);
+			}
+		}
+
+		this.lineStartPosition = this.position;
+		this.position += consumed;
+		this.lineNo++;
+
+		int length = this.lineLength;
+		if (length > 0 && this.lineBytes[length - 1] == '\r') {
+			length--;
+		}
+
+		return this.decode(length);
+	}
+
+	/**
+	 * @return
+	 *      Byte offset directly after the last line returned by {@link #readLine()}, i.e. where to resume reading
+	 */
+	public long getPosition() {
+		return this.position;
+	}
+
+	/**
+	 * @return
+	 *      Byte offset at which the last line returned by {@link #readLine()} started
+	 */
+	public long getLineStartPosition() {
+		return this.lineStartPosition;
+	}
+
+	/**
+	 * @return
+	 *      1-based number of the last line returned by {@link #readLine()}
+	 */
+	public int getLineNo() {
+		return this.lineNo;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+
+	private boolean fill() throws IOException {
+		if (this.eof) {
+			return false;
+		}
+		((Buffer) this.readBuffer).clear();
+		int n = this.channel.read(this.readBuffer);
+		((Buffer) this.readBuffer).flip();
+		if (n <= 0) {
+			this.eof = true;
+			return false;
+		}
+		return true;
+	}
+
+	private void appendToLine(byte[] src, int offset, int length) {
+		if (this.lineLength + length > this.lineBytes.length) {
+			byte[] newLineBytes = new byte[Math.max(this.lineBytes.length * 2, this.lineLength + length)];
+			System.arraycopy(this.lineBytes, 0, newLineBytes, 0, this.lineLength);
+			this.lineBytes = newLineBytes;
+			this.lineBuffer = ByteBuffer.wrap(this.lineBytes);
+		}
+		System.arraycopy(src, offset, this.lineBytes, this.lineLength, length);
+		this.lineLength += length;
+	}
+
+	private String decode(int length) {
+		if (this.charBuffer.capacity() < length) {
+			this.charBuffer = CharBuffer.allocate(Math.max(this.charBuffer.capacity() * 2, length));
+		}
+
+		((Buffer) this.lineBuffer).clear();
+		((Buffer) this.lineBuffer).limit(length);
+		((Buffer) this.charBuffer).clear();
+		this.decoder.reset();
+		CoderResult result = this.decoder.decode(this.lineBuffer, this.charBuffer, true);
+		if (result.isError()) {
+			logger.warn("Failed to decode line " + this.lineNo + ": " + result);
+		}
+		this.decoder.flush(this.charBuffer);
+		((Buffer) this.charBuffer).flip();
+
+		return this.charBuffer.toString();
+	}
+
+	private void skipByteOrderMark() throws IOException {
+		if (this.fill() && this.readBuffer.remaining() >= 3) {
+			byte[] array = this.readBuffer.array();
+			if ((array[0] & 0xFF) == 0xEF && (array[1] & 0xFF) == 0xBB && (array[2] & 0xFF) == 0xBF) {
+				((Buffer) this.readBuffer).position(3);
+				this.position = 3L;
+			}
+		}
+	}
+
+}